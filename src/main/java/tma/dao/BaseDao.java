@@ -1,11 +1,21 @@
 package tma.dao;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import javax.annotation.Resource;
 
+import org.hibernate.Cache;
 import org.hibernate.LockMode;
 import org.hibernate.LockOptions;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 /**
  * Common stuff for dao's.
@@ -14,8 +24,21 @@ public class BaseDao {
 	@Resource(name = "sessionFactory")
 	private SessionFactory sessionFactory;
 
+	/**
+	 * In a read-only transaction, the session is not flushed (the transaction manager sets its flush mode to manual)
+	 * and the entities it loads are read-only, so hibernate neither keeps a snapshot of them nor checks them for
+	 * changes.
+	 */
 	protected Session getSession(){
-		return sessionFactory.getCurrentSession();
+		Session session = sessionFactory.getCurrentSession();
+		if (TransactionSynchronizationManager.isCurrentTransactionReadOnly() && !session.isDefaultReadOnly()) {
+			session.setDefaultReadOnly(true);
+		}
+		return session;
+	}
+
+	protected SessionFactory getSessionFactory() {
+		return sessionFactory;
 	}
 	
 	/**
@@ -26,6 +49,13 @@ public class BaseDao {
 		getSession().evict(obj);
 	}
 
+	/**
+	 * Flushes the session, i.e. writes the pending changes of the objects in it to the db.
+	 */
+	public void flush() {
+		getSession().flush();
+	}
+
 	/**
 	 * Sets a "optimistic force increment lock" on the object for the current transaction. This means that when
 	 * committing the transaction, the version field is incremented to indicate that the object has been tampered with;
@@ -34,6 +64,55 @@ public class BaseDao {
 	public void lock(Object obj) {
 		getSession().buildLockRequest(LockOptions.NONE).setLockMode(LockMode.OPTIMISTIC_FORCE_INCREMENT).lock(obj);
 	}
+
+	/**
+	 * Checks if the object has been locked with {@link #lock(Object)} in the current transaction, i.e. if its version
+	 * will be incremented on commit.
+	 */
+	public boolean isLocked(Object obj) {
+		return LockMode.OPTIMISTIC_FORCE_INCREMENT.equals(getSession().getCurrentLockMode(obj));
+	}
+
+	/**
+	 * Removes the objects with the given id's from the second level cache. Meant to be used after updating the db
+	 * directly, e.g. with JDBC, which hibernate does not know about. The objects are evicted again when the transaction
+	 * ends, in case another transaction has put the old state back in the meantime.
+	 */
+	protected void evictFromCache(final Class<?> entityClass, Collection<? extends Serializable> ids) {
+		final List<Serializable> idList = new ArrayList<Serializable>(ids);
+		evictFromCache(entityClass, idList);
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					evictFromCache(entityClass, idList);
+				}
+			});
+		}
+	}
+
+	private void evictFromCache(Class<?> entityClass, List<Serializable> ids) {
+		Cache cache = sessionFactory.getCache();
+		for (Serializable id : ids) {
+			cache.evictEntity(entityClass, id);
+		}
+	}
+
+	/**
+	 * Re-reads from the db the objects with the given id's that are already in the session; the ones that aren't are
+	 * not loaded. Meant to be used after updating the db directly, e.g. with a bulk update, which hibernate does not
+	 * apply to the objects in the session.
+	 */
+	protected void refreshLoaded(Class<?> entityClass, Collection<? extends Serializable> ids) {
+		SessionImplementor session = (SessionImplementor) getSession();
+		EntityPersister persister = session.getFactory().getEntityPersister(entityClass.getName());
+		for (Serializable id : ids) {
+			Object loaded = session.getPersistenceContext().getEntity(session.generateEntityKey(id, persister));
+			if (loaded != null) {
+				getSession().refresh(loaded);
+			}
+		}
+	}
 	
 
 
@@ -0,0 +1,12 @@
+package tma.dao;
+
+/**
+ * Receives the results of a query one at a time as they are read, so that they don't all have to be held in memory at
+ * the same time.
+ */
+public interface ResultHandler<T> {
+	/**
+	 * Called once for each result, in the order of the query.
+	 */
+	void handle(T result);
+}
@@ -3,6 +3,8 @@ package tma.dao;
 import java.util.List;
 
 import org.hibernate.Query;
+import org.hibernate.SQLQuery;
+import org.hibernate.type.StandardBasicTypes;
 import org.springframework.stereotype.Repository;
 
 import tma.domain.model.Schedule;
@@ -35,6 +37,25 @@ public class ScheduleDao extends BaseDao {
 	    return result != null; 
 	}
 	
+	/**
+	 * Reads only the version of the schedule, with a primary key lookup in the db, without loading the schedule into
+	 * the session. The version is incremented by {@link #lock(Object)} on every change to the tasks of the schedule.
+	 * 
+	 * @throws BadInputException
+	 *             if it is not found
+	 */
+	public long readVersion(long id) {
+		SQLQuery query = getSession().createSQLQuery("select version from Schedule where id = :id");
+		query.addSynchronizedQuerySpace("Schedule");
+		query.addScalar("version", StandardBasicTypes.LONG);
+		query.setLong("id", id);
+		Long result = (Long) query.uniqueResult();
+		if (result == null) {
+			throw new BadInputException(BadInput.SCHEDULE_NOT_FOUND);
+		}
+		return result;
+	}
+
 	/**
 	 * Finds schedules by name (case insensitive). 
 	 * @throws Assertion if name is null
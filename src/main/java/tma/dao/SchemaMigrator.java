@@ -0,0 +1,116 @@
+package tma.dao;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import tma.exceptions.ResourceException;
+
+/**
+ * Brings the db schema up to date on startup. The tables and columns are created by hibernate from the mapping
+ * (hbm2ddl), so this is for what the mapping can't express, such as indexes and tables that are not mapped. <br/>
+ * 
+ * The schema has a version, kept in the SchemaVersion table, which is the number of migrations that have been applied
+ * to it. On startup, the migrations that haven't been applied yet are applied in order. A db lock makes sure that only
+ * one instance of the application does this at a time.
+ */
+public class SchemaMigrator {
+	public static final Logger LOGGER = Logger.getLogger(SchemaMigrator.class.getName());
+
+	private static final String LOCK_NAME = "tma.SchemaMigrator";
+	private static final int LOCK_TIMEOUT_SECONDS = 60;
+
+	/*
+	 * New migrations are added at the end. A migration that has been released must never be changed, since it won't
+	 * be applied again to schemas that already have it.
+	 */
+	private static final String[] MIGRATIONS = {
+			/* 1: finding tasks by time range, busy time, conflicts */
+			"create index Task_scheduleId_start_end on Task (scheduleId, start, end)",
+			/* 2: order of tasks */
+			"create index Task_scheduleId_previousTaskId on Task (scheduleId, previousTaskId)",
+			/* 3: tasks by status, e.g. the ones needing scheduling */
+			"create index Task_scheduleId_schedulingStatus on Task (scheduleId, schedulingStatus)",
+			/* 4: checking that a user owns a schedule */
+			"create index UserSchedule_userId_scheduleId on UserSchedule (userId, scheduleId)",
+			/* 5: the log of task changes, see TaskChangeDao */
+			"create table TaskChange (sequence bigint not null auto_increment, scheduleId bigint not null, "
+					+ "taskId bigint not null, deleted bit not null, primary key (sequence), "
+					+ "unique key TaskChange_scheduleId_taskId (scheduleId, taskId), "
+					+ "key TaskChange_scheduleId_sequence (scheduleId, sequence)) engine=InnoDB",
+			/* 6: the tasks that existed before the log did */
+			"insert into TaskChange (scheduleId, taskId, deleted) select scheduleId, id, false from Task "
+					+ "where scheduleId is not null order by id" };
+
+	private DataSource dataSource;
+
+	public void setDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	/**
+	 * Applies the migrations that haven't been applied yet.
+	 * 
+	 * @throws ResourceException
+	 *             if another instance of the application is holding the lock for too long.
+	 */
+	public void migrate() throws SQLException {
+		Connection connection = dataSource.getConnection();
+		try {
+			Statement statement = connection.createStatement();
+			try {
+				if (!lock(statement)) {
+					throw new ResourceException();
+				}
+				try {
+					statement.execute("create table if not exists SchemaVersion (version int not null)");
+					int version = readVersion(statement);
+					for (int i = version; i < MIGRATIONS.length; i++) {
+						LOGGER.info("Migrating schema to version " + (i + 1) + ": " + MIGRATIONS[i]);
+						statement.execute(MIGRATIONS[i]);
+						statement.executeUpdate("update SchemaVersion set version = " + (i + 1));
+					}
+				} finally {
+					statement.execute("select release_lock('" + LOCK_NAME + "')");
+				}
+			} finally {
+				statement.close();
+			}
+		} finally {
+			connection.close();
+		}
+	}
+
+	/**
+	 * @return the number of migrations in the current version of the code.
+	 */
+	public static int getLatestVersion() {
+		return MIGRATIONS.length;
+	}
+
+	private boolean lock(Statement statement) throws SQLException {
+		ResultSet result = statement.executeQuery("select get_lock('" + LOCK_NAME + "', " + LOCK_TIMEOUT_SECONDS + ")");
+		try {
+			return result.next() && result.getInt(1) == 1;
+		} finally {
+			result.close();
+		}
+	}
+
+	private int readVersion(Statement statement) throws SQLException {
+		ResultSet result = statement.executeQuery("select version from SchemaVersion");
+		try {
+			if (result.next()) {
+				return result.getInt(1);
+			}
+		} finally {
+			result.close();
+		}
+		statement.executeUpdate("insert into SchemaVersion (version) values (0)");
+		return 0;
+	}
+}
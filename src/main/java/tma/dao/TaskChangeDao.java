@@ -0,0 +1,230 @@
+package tma.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.PostConstruct;
+
+import org.hibernate.SQLQuery;
+import org.hibernate.Session;
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.type.StandardBasicTypes;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import tma.domain.model.Task;
+
+/**
+ * The log of changes to the tasks of each schedule, so a client that has read the tasks of a schedule can ask only for
+ * what changed since. The TaskChange table (see {@link SchemaMigrator}) has a row per task and schedule, with the
+ * sequence number of the last change to the task and whether that change removed it from the schedule, i.e. deleted
+ * it or moved it to another one. The sequence numbers are increasing across all schedules. <br/>
+ *
+ * Changes made through hibernate are picked up from its insert, update and delete events. Changes made directly to the
+ * db, e.g. with bulk or JDBC updates, must be recorded with {@link #recordChanged(long, Collection)}. The changes of a
+ * transaction are collected in memory and written just before it commits, after the session has been flushed, with
+ * one row per task however many times it changed. <br/>
+ *
+ * Rows get their sequence numbers when they are written rather than when the transaction commits, so the sequences of
+ * two concurrent transactions could become visible out of order. That does not happen within a schedule, since every
+ * transaction that changes tasks locks their schedule (see {@link BaseDao#lock(Object)}), and of two transactions that
+ * lock the same schedule concurrently, only one can commit.
+ */
+@Repository
+public class TaskChangeDao extends BaseDao {
+
+	private static final String REPLACE_CHANGE = "replace into TaskChange (scheduleId, taskId, deleted) values (?, ?, ?)";
+
+	@PostConstruct
+	public void registerListener() {
+		EventListenerRegistry registry = ((SessionFactoryImplementor) getSessionFactory()).getServiceRegistry()
+				.getService(EventListenerRegistry.class);
+		Listener listener = new Listener();
+		registry.appendListeners(EventType.POST_INSERT, listener);
+		registry.appendListeners(EventType.POST_UPDATE, listener);
+		registry.appendListeners(EventType.POST_DELETE, listener);
+	}
+
+	/**
+	 * Records that the given tasks of the schedule have changed. Meant for changes that are made directly to the db,
+	 * which hibernate does not know about.
+	 */
+	public void recordChanged(long scheduleId, Collection<Long> taskIds) {
+		Changes changes = getChanges((SessionImplementor) getSession());
+		for (Long taskId : taskIds) {
+			changes.put(scheduleId, taskId, false);
+		}
+	}
+
+	/**
+	 * Removes the changes of a schedule, including the ones of the current transaction. Meant for when the schedule is
+	 * deleted.
+	 */
+	public void forgetSchedule(long scheduleId) {
+		getChanges((SessionImplementor) getSession()).forgotten.add(scheduleId);
+		SQLQuery query = getSession().createSQLQuery("delete from TaskChange where scheduleId = :scheduleId");
+		query.addSynchronizedQuerySpace("TaskChange");
+		query.setLong("scheduleId", scheduleId);
+		query.executeUpdate();
+	}
+
+	/**
+	 * Finds the changes to the tasks of a schedule that come after the given sequence number, in the order they were
+	 * made.
+	 *
+	 * @param maxResults
+	 *            the maximum number of changes to return
+	 * @return a list of object arrays of length 3: the sequence number and the task id as Long, and whether the task
+	 *         was removed from the schedule as Boolean.
+	 */
+	public List<Object[]> findChanges(long scheduleId, long since, int maxResults) {
+		SQLQuery query = getSession().createSQLQuery(
+				"select sequence, taskId, deleted from TaskChange where scheduleId = :scheduleId "
+						+ "and sequence > :since order by sequence asc");
+		query.addSynchronizedQuerySpace("TaskChange");
+		query.addScalar("sequence", StandardBasicTypes.LONG).addScalar("taskId", StandardBasicTypes.LONG)
+				.addScalar("deleted", StandardBasicTypes.BOOLEAN);
+		query.setLong("scheduleId", scheduleId);
+		query.setLong("since", since);
+		query.setMaxResults(maxResults);
+		return query.list();
+	}
+
+	/*
+	 * The changes of the current transaction. The first time a change is recorded, they are bound to the transaction,
+	 * and hibernate is asked to write them after its last flush on commit, and to unbind them when the transaction
+	 * ends, committed or not.
+	 */
+	private Changes getChanges(SessionImplementor session) {
+		Changes changes = (Changes) TransactionSynchronizationManager.getResource(this);
+		if (changes == null) {
+			final Changes created = new Changes();
+			TransactionSynchronizationManager.bindResource(this, created);
+			EventSource eventSource = (EventSource) session;
+			eventSource.getActionQueue().registerProcess(new BeforeTransactionCompletionProcess() {
+				public void doBeforeTransactionCompletion(SessionImplementor session) {
+					write((Session) session, created);
+				}
+			});
+			eventSource.getActionQueue().registerProcess(new AfterTransactionCompletionProcess() {
+				public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+					TransactionSynchronizationManager.unbindResourceIfPossible(TaskChangeDao.this);
+				}
+			});
+			changes = created;
+		}
+		return changes;
+	}
+
+	private void write(Session session, final Changes changes) {
+		session.doWork(new Work() {
+			public void execute(Connection connection) throws SQLException {
+				PreparedStatement statement = connection.prepareStatement(REPLACE_CHANGE);
+				try {
+					int count = 0;
+					for (Map.Entry<Long, Map<Long, Boolean>> schedule : changes.bySchedule.entrySet()) {
+						if (changes.forgotten.contains(schedule.getKey())) {
+							continue;
+						}
+						for (Map.Entry<Long, Boolean> task : schedule.getValue().entrySet()) {
+							statement.setLong(1, schedule.getKey());
+							statement.setLong(2, task.getKey());
+							statement.setBoolean(3, task.getValue());
+							statement.addBatch();
+							count++;
+						}
+					}
+					if (count > 0) {
+						statement.executeBatch();
+					}
+				} finally {
+					statement.close();
+				}
+			}
+		});
+	}
+
+	private static class Changes {
+		/* scheduleId -> taskId -> deleted; the last change of a task in a schedule wins */
+		private final Map<Long, Map<Long, Boolean>> bySchedule = new LinkedHashMap<Long, Map<Long, Boolean>>();
+		/* schedules whose changes are not written, see forgetSchedule */
+		private final Set<Long> forgotten = new HashSet<Long>();
+
+		private void put(Long scheduleId, Long taskId, boolean deleted) {
+			if (scheduleId == null || taskId == null) {
+				return;
+			}
+			Map<Long, Boolean> tasks = bySchedule.get(scheduleId);
+			if (tasks == null) {
+				tasks = new LinkedHashMap<Long, Boolean>();
+				bySchedule.put(scheduleId, tasks);
+			}
+			tasks.put(taskId, deleted);
+		}
+	}
+
+	/*
+	 * Records the changes that hibernate makes to tasks. A task whose schedule changed is recorded as removed from the
+	 * old schedule and changed in the new one.
+	 */
+	private class Listener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+		private static final long serialVersionUID = 1L;
+
+		public void onPostInsert(PostInsertEvent event) {
+			if (event.getEntity() instanceof Task) {
+				Task task = (Task) event.getEntity();
+				getChanges(event.getSession()).put(task.getScheduleId(), task.getId(), false);
+			}
+		}
+
+		public void onPostUpdate(PostUpdateEvent event) {
+			if (event.getEntity() instanceof Task) {
+				Task task = (Task) event.getEntity();
+				Changes changes = getChanges(event.getSession());
+				if (event.getOldState() != null) {
+					Long oldScheduleId = (Long) event.getOldState()[scheduleIdIndex(event.getPersister())];
+					if (oldScheduleId != null && !oldScheduleId.equals(task.getScheduleId())) {
+						changes.put(oldScheduleId, task.getId(), true);
+					}
+				}
+				changes.put(task.getScheduleId(), task.getId(), false);
+			}
+		}
+
+		public void onPostDelete(PostDeleteEvent event) {
+			if (event.getEntity() instanceof Task) {
+				Long scheduleId = (Long) event.getDeletedState()[scheduleIdIndex(event.getPersister())];
+				getChanges(event.getSession()).put(scheduleId, (Long) event.getId(), true);
+			}
+		}
+
+		public boolean requiresPostCommitHanding(EntityPersister persister) {
+			return false;
+		}
+
+		private int scheduleIdIndex(EntityPersister persister) {
+			return persister.getEntityMetamodel().getPropertyIndex("scheduleId");
+		}
+	}
+}
@@ -1,18 +1,34 @@
 package tma.dao;
 
 import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import org.hibernate.Query;
+import org.hibernate.SQLQuery;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.jdbc.Work;
+import org.hibernate.type.StandardBasicTypes;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Transactional;
 
 import tma.domain.model.Task;
+import tma.domain.model.TaskSummary;
 import tma.domain.model.Window;
+import tma.domain.service.BusyTimeIndex;
+import tma.domain.service.ConflictDetector;
+import tma.domain.service.OrderGraph;
 import tma.exceptions.Assertion;
 import tma.exceptions.BadInput;
 import tma.exceptions.BadInputException;
@@ -26,21 +42,25 @@ import tma.util.Utils;
 public class TaskDao extends BaseDao {
 
 	/*
-	 * This is needed for optimization since there can be large #'s of tasks resulting from a query. When querying for
-	 * tasks, even if eager fetching is used in mapping, there will be secondary db queries, one for each task, to get
-	 * the windows. To prevent this it is necessary to use a join that brings everything in one query.
-	 * 
-	 * The expected join query is this, but hibernate fails due to the join table mapping. Possibly a bug. "select
-	 * {task.*}, {window.*} from Task task left join TaskWindow tw on task.id = tw.taskId join Window window on
-	 * tw.windowId = window.id "
-	 * 
-	 * When using the following query, hibernate works fine.
+	 * Tasks are selected alone, without joining their windows. The windows of all the tasks in a result are then
+	 * loaded by hibernate in batches of "where taskId in (...)" queries, as set in the mapping of Task.windows, so
+	 * there are neither duplicate rows nor one windows query per task.
 	 */
-	private static final String EAGER_FETCH_TASK = "select {task.*}, {window.*} from Task task "
-			+ "left join (select * from TaskWindow tw join Window w on tw.windowId = w.id ) window on task.id = "
-			+ "window.taskId  where 1=1 ";
+	private static final String SELECT_TASK = "select {task.*} from Task task where 1=1 ";
+
+	/* each followed by "in (?, ...)" with the ids */
+	private static final String SELECT_STATUS = "select id from Task where scheduleId = ? and schedulingStatus = ? "
+			+ "and id in ";
+	private static final String UPDATE_STATUS = "update Task set schedulingStatus = ?, version = version + 1 "
+			+ "where scheduleId = ? and schedulingStatus = ? and id in ";
+	/* the number of ids in each "in (...)" of SELECT_STATUS and UPDATE_STATUS */
+	private static final int UPDATE_STATUS_CHUNK = 1000;
 
-	private static final String LAZY_FETCH_TASK = "select {task.*} from Task task where 1=1 ";
+	private static final String UPDATE_SCHEDULING = "update Task set start = ?, end = ?, schedulingStatus = ?, "
+			+ "version = version + 1 where id = ?";
+
+	@Autowired
+	private TaskChangeDao taskChangeDao;
 
 	/**
 	 * @throws Assertion
@@ -86,6 +106,19 @@ public class TaskDao extends BaseDao {
 		return result;
 	}
 
+	/**
+	 * Reads the tasks with the given id's with a single query (and their windows with batched ones). Id's of tasks
+	 * that don't exist are ignored.
+	 */
+	public List<Task> read(Collection<Long> taskIds) {
+		if (taskIds.isEmpty()) {
+			return new ArrayList<Task>();
+		}
+		Query query = getSession().createQuery("from Task task where task.id in (:ids)");
+		query.setParameterList("ids", taskIds);
+		return query.list();
+	}
+
 	/**
 	 * @throws BadInputException
 	 *             if does not exist
@@ -121,41 +154,213 @@ public class TaskDao extends BaseDao {
 	 * @return
 	 */
 	public List<Task> findTasks(long scheduleId, Long start, Long end, String name) {
+		return findTasks(scheduleId, start, end, name, null, null, null);
+	}
 
-		/*
-		 * todo 12x: if implementing paging, the join for proper eager fetching complicates things a bit. Because if
-		 * we put a limit, it would be putting it on the windows and not the tasks. This can be solved by putting the
-		 * limit in a task sub-query that doesn't join window. The following limits in subqueries were tested:
-		 * 
-		 * "select * from Task where id in(select id from Task limit 1)" -- error message, doesn't work
-		 * "select * from Task t, (select id from Task limit 0, 1) t1 where t.id = t1.id" -- works fine
-		 */
+	/**
+	 * Same as {@link #findTasks(long, Long, Long, String)}, but returns a single page of the tasks. The tasks are sorted
+	 * by start and id (tasks without start come first), and a page is defined by the position after which it starts in
+	 * that order (keyset pagination), so pages stay consistent even if tasks are added or removed in between.
+	 * 
+	 * @param afterStart
+	 *            the start of the last task of the previous page; may be null, since tasks can be without start
+	 * @param afterId
+	 *            the id of the last task of the previous page. If null, the page starts at the beginning.
+	 * @param limit
+	 *            max number of tasks in the page. If null, all the remaining tasks are returned.
+	 */
+	public List<Task> findTasks(long scheduleId, Long start, Long end, String name, Long afterStart, Long afterId,
+			Integer limit) {
+		String conditions = taskConditions(start, end, name, afterStart, afterId);
+		String order = " order by task.start asc, task.id asc ";
+
+		String queryStr = SELECT_TASK + conditions + order;
+		if (limit != null) {
+			queryStr += " limit :limit";
+		}
+
+		Query query = getSession().createSQLQuery(queryStr).addEntity("task", Task.class);
+
+		setTaskParameters(query, scheduleId, start, end, name, afterStart, afterId);
+		if (limit != null) {
+			query.setInteger("limit", limit);
+		}
+
+		return query.list();
+	}
+
+	/**
+	 * Same as {@link #findTasks(long, Long, Long, String)}, but instead of returning the tasks, passes them to the
+	 * handler one by one as they are read. The rows are streamed from the db and the tasks are built from them
+	 * directly, without going through the session, so memory use does not depend on the number of tasks. The tasks
+	 * are not managed by the session.
+	 */
+	public void findTasks(long scheduleId, Long start, Long end, String name, ResultHandler<Task> handler) {
+		/* the windows of a task are in consecutive rows */
+		String queryStr = "select task.id id, task.version version, task.scheduleId scheduleId, task.name name, "
+				+ "task.previousTaskId previousTaskId, task.immediatelyFollowsPrevious immediatelyFollowsPrevious, "
+				+ "task.duration duration, task.start start, task.allDay allDay, task.allDayOrder allDayOrder, "
+				+ "task.includeTime includeTime, task.description description, task.taskType taskType, "
+				+ "task.schedulingStatus schedulingStatus, w.id windowId, w.version windowVersion, "
+				+ "w.start windowStart, w.end windowEnd from Task task "
+				+ "left join TaskWindow tw on task.id = tw.taskId left join Window w on tw.windowId = w.id where 1=1 "
+				+ taskConditions(start, end, name, null, null)
+				+ " order by task.start asc, task.id asc, tw.windows_ORDER asc";
+
+		SQLQuery query = getSession().createSQLQuery(queryStr).addSynchronizedQuerySpace("Task");
+		query.addScalar("id", StandardBasicTypes.LONG).addScalar("version", StandardBasicTypes.LONG)
+				.addScalar("scheduleId", StandardBasicTypes.LONG).addScalar("name", StandardBasicTypes.STRING)
+				.addScalar("previousTaskId", StandardBasicTypes.LONG)
+				.addScalar("immediatelyFollowsPrevious", StandardBasicTypes.BOOLEAN)
+				.addScalar("duration", StandardBasicTypes.LONG).addScalar("start", StandardBasicTypes.LONG)
+				.addScalar("allDay", StandardBasicTypes.BOOLEAN).addScalar("allDayOrder", StandardBasicTypes.LONG)
+				.addScalar("includeTime", StandardBasicTypes.BOOLEAN)
+				.addScalar("description", StandardBasicTypes.STRING)
+				.addScalar("taskType", StandardBasicTypes.STRING)
+				.addScalar("schedulingStatus", StandardBasicTypes.STRING)
+				.addScalar("windowId", StandardBasicTypes.LONG).addScalar("windowVersion", StandardBasicTypes.LONG)
+				.addScalar("windowStart", StandardBasicTypes.LONG).addScalar("windowEnd", StandardBasicTypes.LONG);
+		setTaskParameters(query, scheduleId, start, end, name, null, null);
+		/* makes the mysql driver stream the rows rather than read them all into memory */
+		query.setFetchSize(Integer.MIN_VALUE);
+
+		ScrollableResults rows = query.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			Task task = null;
+			while (rows.next()) {
+				Object[] row = rows.get();
+				if (task == null || !task.getId().equals(row[0])) {
+					if (task != null) {
+						handler.handle(task);
+					}
+					task = toTask(row);
+				}
+				if (row[14] != null) {
+					Window window = new Window((Long) row[16], (Long) row[17]);
+					window.setId((Long) row[14]);
+					window.setVersion((Long) row[15]);
+					task.getWindows().add(window);
+				}
+			}
+			if (task != null) {
+				handler.handle(task);
+			}
+		} finally {
+			rows.close();
+		}
+	}
+
+	/**
+	 * Same as {@link #findTasks(long, Long, Long, String)}, but returns only the fields needed for showing the tasks on
+	 * a calendar. The summaries are built from the columns of a single query; no entities are loaded and no windows
+	 * are read.
+	 */
+	public List<TaskSummary> findTaskSummaries(long scheduleId, Long start, Long end, String name) {
+		List<Object[]> rows = createTaskSummariesQuery(scheduleId, start, end, name).list();
+		List<TaskSummary> result = new ArrayList<TaskSummary>(rows.size());
+		for (Object[] row : rows) {
+			result.add(toTaskSummary(row));
+		}
+		return result;
+	}
+
+	/**
+	 * Same as {@link #findTaskSummaries(long, Long, Long, String)}, but instead of returning the summaries, passes them
+	 * to the handler one by one as the rows are streamed from the db, in order of start.
+	 */
+	public void findTaskSummaries(long scheduleId, Long start, Long end, String name,
+			ResultHandler<TaskSummary> handler) {
+		Query query = createTaskSummariesQuery(scheduleId, start, end, name);
+		/* makes the mysql driver stream the rows rather than read them all into memory */
+		query.setFetchSize(Integer.MIN_VALUE);
+		ScrollableResults rows = query.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (rows.next()) {
+				handler.handle(toTaskSummary(rows.get()));
+			}
+		} finally {
+			rows.close();
+		}
+	}
+
+	private Query createTaskSummariesQuery(long scheduleId, Long start, Long end, String name) {
+		String queryStr = "select task.id id, task.name name, task.start start, task.duration duration, "
+				+ "task.allDay allDay, task.allDayOrder allDayOrder, task.taskType taskType, "
+				+ "task.schedulingStatus schedulingStatus from Task task where 1=1 "
+				+ taskConditions(start, end, name, null, null) + " order by task.start asc, task.id asc";
+
+		SQLQuery query = getSession().createSQLQuery(queryStr).addSynchronizedQuerySpace("Task");
+		query.addScalar("id", StandardBasicTypes.LONG).addScalar("name", StandardBasicTypes.STRING)
+				.addScalar("start", StandardBasicTypes.LONG).addScalar("duration", StandardBasicTypes.LONG)
+				.addScalar("allDay", StandardBasicTypes.BOOLEAN).addScalar("allDayOrder", StandardBasicTypes.LONG)
+				.addScalar("taskType", StandardBasicTypes.STRING)
+				.addScalar("schedulingStatus", StandardBasicTypes.STRING);
+		setTaskParameters(query, scheduleId, start, end, name, null, null);
+		return query;
+	}
+
+	private static TaskSummary toTaskSummary(Object[] row) {
+		return new TaskSummary((Long) row[0], (String) row[1], (Long) row[2], (Long) row[3], Boolean.TRUE
+				.equals(row[4]), (Long) row[5], row[6] == null ? null : Task.TaskType.valueOf((String) row[6]),
+				row[7] == null ? null : Task.SchedulingStatus.valueOf((String) row[7]));
+	}
+
+	private static Task toTask(Object[] row) {
+		Task task = new Task();
+		task.setId((Long) row[0]);
+		task.setVersion((Long) row[1]);
+		task.setScheduleId((Long) row[2]);
+		task.setName((String) row[3]);
+		task.setPreviousTaskId((Long) row[4]);
+		task.setImmediatelyFollowsPrevious((Boolean) row[5]);
+		task.setDuration((Long) row[6]);
+		task.setStart((Long) row[7]);
+		task.setAllDay(Boolean.TRUE.equals(row[8]));
+		task.setAllDayOrder((Long) row[9]);
+		task.setIncludeTime(Boolean.TRUE.equals(row[10]));
+		task.setDescription((String) row[11]);
+		task.setTaskType(row[12] == null ? null : Task.TaskType.valueOf((String) row[12]));
+		task.setSchedulingStatus(row[13] == null ? null : Task.SchedulingStatus.valueOf((String) row[13]));
+		task.updateDerivedFields();
+		return task;
+	}
 
-		StringBuilder queryBldr = new StringBuilder(EAGER_FETCH_TASK);
+	/*
+	 * the conditions of the task finding queries, for a Task aliased as task
+	 */
+	private static String taskConditions(Long start, Long end, String name, Long afterStart, Long afterId) {
+		StringBuilder conditionBldr = new StringBuilder();
 
-		queryBldr.append(" and task.scheduleId = :scheduleId");
+		conditionBldr.append(" and task.scheduleId = :scheduleId");
 		if (name != null) {
-			queryBldr.append(" and lower(task.name) like lower(:name)");
+			conditionBldr.append(" and lower(task.name) like lower(:name)");
 		}
 
+		/*
+		 * a task overlaps the range if it starts before the range ends and ends after the range starts. Written as
+		 * plain comparisons on the columns so that the (scheduleId, start, end) index can be used.
+		 */
 		if (start != null) {
-			if (end != null) {
-				queryBldr.append(" and ((task.start >= :start and task.start < :end) or (task.end >"
-						+ " :start and task.end <= :end)  or (task.start <= :start and "
-						+ "task.end >= :end))");
+			conditionBldr.append(" and task.end > :start");
+		}
+		if (end != null) {
+			conditionBldr.append(" and task.start < :end");
+		}
+		if (afterId != null) {
+			/* mysql sorts nulls first */
+			if (afterStart == null) {
+				conditionBldr.append(" and (task.start is not null or task.id > :afterId)");
 			} else {
-				queryBldr.append(" and task.end > :start");
-			}
-		} else {
-			if (end != null) {
-				queryBldr.append(" and task.start < :end");
+				/* the leading bound on start lets the index limit the scan */
+				conditionBldr.append(" and task.start >= :afterStart and (task.start > :afterStart "
+						+ "or task.id > :afterId)");
 			}
 		}
-		queryBldr.append(" order by task.start asc ");
-
-		Query query = getSession().createSQLQuery(queryBldr.toString()).addEntity("task", Task.class)
-				.addJoin("window", "task.windows");
+		return conditionBldr.toString();
+	}
 
+	private static void setTaskParameters(Query query, long scheduleId, Long start, Long end, String name,
+			Long afterStart, Long afterId) {
 		List<String> namedParams = Arrays.asList(query.getNamedParameters());
 
 		if (namedParams.contains("scheduleId")) {
@@ -170,21 +375,57 @@ public class TaskDao extends BaseDao {
 		if (namedParams.contains("name")) {
 			query.setString("name", name);
 		}
+		if (namedParams.contains("afterStart")) {
+			query.setLong("afterStart", afterStart);
+		}
+		if (namedParams.contains("afterId")) {
+			query.setLong("afterId", afterId);
+		}
+	}
+
+	/**
+	 * Builds an index of the time that is taken up by the tasks of the schedule, i.e. the tasks that have a start
+	 * time. Only the start and end columns are read, so no tasks are loaded into the session.
+	 * 
+	 * @param scheduleId
+	 *            which schedule the tasks belong to
+	 * @param start
+	 *            only the tasks that end after this are included. If null, it means negative infinity in time
+	 * @param end
+	 *            only the tasks that start before this are included. If null, it means positive infinity in time
+	 */
+	public BusyTimeIndex findBusyTime(long scheduleId, Long start, Long end) {
+		StringBuilder queryBldr = new StringBuilder("select task.start start, task.end end from Task task "
+				+ " where task.scheduleId = :scheduleId and task.start is not null ");
+		if (start != null) {
+			queryBldr.append(" and task.end > :start");
+		}
+		if (end != null) {
+			queryBldr.append(" and task.start < :end");
+		}
+		queryBldr.append(" order by task.start asc ");
 
-		List result = query.list();
 		/*
-		 * using the eager fetch query causes duplicate results due to the join
+		 * synchronizing on the Task table so that pending changes to tasks in the session are flushed first
 		 */
-		List<Task> unique = new ArrayList<Task>();
-		Set<Task> set = new HashSet<Task>();
-		for (Object res : result) {
-			Task task = (Task) ((Object[]) res)[0];
-			if (!set.contains(task)) {
-				unique.add(task);
-				set.add(task);
-			}
+		SQLQuery query = getSession().createSQLQuery(queryBldr.toString()).addSynchronizedQuerySpace("Task");
+		query.addScalar("start", StandardBasicTypes.LONG).addScalar("end", StandardBasicTypes.LONG);
+
+		List<String> namedParams = Arrays.asList(query.getNamedParameters());
+		query.setLong("scheduleId", scheduleId);
+		if (namedParams.contains("start")) {
+			query.setLong("start", start);
 		}
-		return unique;
+		if (namedParams.contains("end")) {
+			query.setLong("end", end);
+		}
+
+		List<Object[]> result = query.list();
+		BusyTimeIndex index = new BusyTimeIndex(result.size());
+		for (Object[] row : result) {
+			index.add((Long) row[0], (Long) row[1]);
+		}
+		return index;
 	}
 
 	/**
@@ -196,15 +437,14 @@ public class TaskDao extends BaseDao {
 	 *            whether to coniser only tasks that still need scheduling
 	 */
 	public List<Task> findFloatingTasks(long scheduleId, boolean onlyNeedingScheduling) {
-		StringBuilder queryBldr = new StringBuilder(EAGER_FETCH_TASK);
+		StringBuilder queryBldr = new StringBuilder(SELECT_TASK);
 		queryBldr.append(" and task.taskType = :floating and task.scheduleId = :scheduleId ");
 
 		if (onlyNeedingScheduling) {
 			queryBldr.append(" and task.schedulingStatus in (:unscheduled, :failed, :invalid)");
 		}
 
-		Query query = getSession().createSQLQuery(queryBldr.toString()).addEntity("task", Task.class)
-				.addJoin("window", "task.windows");
+		Query query = getSession().createSQLQuery(queryBldr.toString()).addEntity("task", Task.class);
 		query.setLong("scheduleId", scheduleId);
 		query.setString("floating", Task.TaskType.FLOATING.toString());
 		List<String> namedParams = Arrays.asList(query.getNamedParameters());
@@ -214,20 +454,181 @@ public class TaskDao extends BaseDao {
 			query.setString("invalid", Task.SchedulingStatus.INVALID.toString());
 		}
 
-		List result = query.list();
-		/*
-		 * using the eager fetch query causes duplicate results due to the join
-		 */
-		List<Task> unique = new ArrayList<Task>();
-		Set<Task> set = new HashSet<Task>();
-		for (Object res : result) {
-			Task task = (Task) ((Object[]) res)[0];
-			if (!set.contains(task)) {
-				unique.add(task);
-				set.add(task);
+		return query.list();
+	}
+
+	/**
+	 * Finds the tasks that are needed for planning the floating tasks of a schedule in memory: all floating tasks,
+	 * since any of them can be planned or be ordered before a planned one, and the fixed tasks that end after the given
+	 * time, since they take up time that the floating tasks could be placed in. Everything, including windows, is
+	 * fetched with a few queries regardless of the number of tasks.<br/>
+	 * 
+	 * The returned tasks are detached from the session, so changes made to them are not persisted automatically. Use
+	 * {@link #updateScheduling(Collection)} to save their scheduling.
+	 */
+	public List<Task> findTasksForPlanning(long scheduleId, long from) {
+		StringBuilder queryBldr = new StringBuilder(SELECT_TASK);
+		queryBldr.append(" and task.scheduleId = :scheduleId and (task.taskType = :floating or task.end > :from)");
+
+		Query query = getSession().createSQLQuery(queryBldr.toString()).addEntity("task", Task.class);
+		query.setLong("scheduleId", scheduleId);
+		query.setString("floating", Task.TaskType.FLOATING.toString());
+		query.setLong("from", from);
+
+		List<Task> tasks = query.list();
+		for (Task task : tasks) {
+			evict(task);
+		}
+		return tasks;
+	}
+
+	/**
+	 * Saves the scheduling related fields (start, end, scheduling status) of the given tasks with a single JDBC batch
+	 * update. Meant for tasks that are not managed by the session, such as the ones returned by
+	 * {@link #findTasksForPlanning(long, long)}; the other fields of the tasks are not saved. The versions of the tasks
+	 * are incremented, the tasks are evicted from the second level cache, and their change is recorded with
+	 * {@link TaskChangeDao}.
+	 */
+	public void updateScheduling(final Collection<Task> tasks) {
+		if (tasks.isEmpty()) {
+			return;
+		}
+		getSession().doWork(new Work() {
+			public void execute(Connection connection) throws SQLException {
+				PreparedStatement statement = connection.prepareStatement(UPDATE_SCHEDULING);
+				try {
+					for (Task task : tasks) {
+						setLong(statement, 1, task.getStart());
+						setLong(statement, 2, task.getEnd());
+						statement.setString(3, task.getSchedulingStatus() == null ? null : task.getSchedulingStatus()
+								.toString());
+						statement.setLong(4, task.getId());
+						statement.addBatch();
+					}
+					statement.executeBatch();
+				} finally {
+					statement.close();
+				}
+			}
+		});
+		List<Long> ids = new ArrayList<Long>(tasks.size());
+		Map<Long, List<Long>> idsBySchedule = new HashMap<Long, List<Long>>();
+		for (Task task : tasks) {
+			ids.add(task.getId());
+			List<Long> scheduleTaskIds = idsBySchedule.get(task.getScheduleId());
+			if (scheduleTaskIds == null) {
+				scheduleTaskIds = new ArrayList<Long>();
+				idsBySchedule.put(task.getScheduleId(), scheduleTaskIds);
 			}
+			scheduleTaskIds.add(task.getId());
 		}
-		return unique;
+		for (Map.Entry<Long, List<Long>> entry : idsBySchedule.entrySet()) {
+			taskChangeDao.recordChanged(entry.getKey(), entry.getValue());
+		}
+		evictFromCache(Task.class, ids);
+	}
+
+	/**
+	 * Changes the scheduling status of the given tasks of a schedule from one status to another, with JDBC statements
+	 * for up to {@value #UPDATE_STATUS_CHUNK} tasks at a time. Only the tasks whose status currently is the "from"
+	 * status are changed, and their versions are incremented; they are selected for update first, so that only they are
+	 * recorded as changed with {@link TaskChangeDao}. The session is flushed before the update, and the changed tasks
+	 * that are already in the session are refreshed after it, so they don't have the old status or version. Like
+	 * {@link #updateScheduling(Collection)}, only the changed tasks are evicted from the second level cache.
+	 * 
+	 * @return the number of tasks that were changed.
+	 */
+	public int updateSchedulingStatus(final long scheduleId, Collection<Long> taskIds, final Task.SchedulingStatus from,
+			final Task.SchedulingStatus to) {
+		Utils.assertTrue(from != null && to != null);
+		if (taskIds.isEmpty()) {
+			return 0;
+		}
+		final List<Long> ids = new ArrayList<Long>(taskIds);
+		final List<Long> changed = new ArrayList<Long>();
+		/* the update bypasses the session, so its pending changes must be in the db first */
+		getSession().flush();
+		getSession().doWork(new Work() {
+			public void execute(Connection connection) throws SQLException {
+				for (int i = 0; i < ids.size(); i += UPDATE_STATUS_CHUNK) {
+					List<Long> chunk = ids.subList(i, Math.min(i + UPDATE_STATUS_CHUNK, ids.size()));
+					/* locked until the end of the transaction, so they are still in the "from" status when updated */
+					List<Long> selected = new ArrayList<Long>();
+					PreparedStatement select = connection.prepareStatement(SELECT_STATUS + placeholders(chunk.size())
+							+ " for update");
+					try {
+						setStatusParameters(select, 1, scheduleId, from, chunk);
+						ResultSet rows = select.executeQuery();
+						while (rows.next()) {
+							selected.add(rows.getLong(1));
+						}
+						rows.close();
+					} finally {
+						select.close();
+					}
+					if (selected.isEmpty()) {
+						continue;
+					}
+					PreparedStatement update = connection.prepareStatement(UPDATE_STATUS
+							+ placeholders(selected.size()));
+					try {
+						update.setString(1, to.toString());
+						setStatusParameters(update, 2, scheduleId, from, selected);
+						update.executeUpdate();
+					} finally {
+						update.close();
+					}
+					changed.addAll(selected);
+				}
+			}
+		});
+		if (!changed.isEmpty()) {
+			refreshLoaded(Task.class, changed);
+			evictFromCache(Task.class, changed);
+			taskChangeDao.recordChanged(scheduleId, changed);
+		}
+		return changed.size();
+	}
+
+	/*
+	 * Sets the schedule id, the status and the ids of SELECT_STATUS or UPDATE_STATUS, starting at the given index.
+	 */
+	private static void setStatusParameters(PreparedStatement statement, int index, long scheduleId,
+			Task.SchedulingStatus status, List<Long> ids) throws SQLException {
+		statement.setLong(index, scheduleId);
+		statement.setString(index + 1, status.toString());
+		for (int i = 0; i < ids.size(); i++) {
+			statement.setLong(index + 2 + i, ids.get(i));
+		}
+	}
+
+	/*
+	 * "(?, ?, ...)" with the given number of placeholders.
+	 */
+	private static String placeholders(int count) {
+		StringBuilder result = new StringBuilder("(");
+		for (int i = 0; i < count; i++) {
+			result.append(i == 0 ? "?" : ", ?");
+		}
+		return result.append(")").toString();
+	}
+
+	private static void setLong(PreparedStatement statement, int index, Long value) throws SQLException {
+		if (value == null) {
+			statement.setNull(index, Types.BIGINT);
+		} else {
+			statement.setLong(index, value);
+		}
+	}
+
+	/**
+	 * @return the id of the schedule of the task, or null if the task doesn't exist.
+	 */
+	public Long findScheduleId(long taskId) {
+		Query query = getSession().createSQLQuery("select scheduleId from Task where id = :taskId");
+		query.setLong("taskId", taskId);
+		BigInteger result = (BigInteger) query.uniqueResult();
+		return result == null ? null : result.longValue();
 	}
 
 	/**
@@ -264,93 +665,152 @@ public class TaskDao extends BaseDao {
 	 * 
 	 * @param scheduleId
 	 * @param start
-	 *            earliest start time of the tasks. If null, it means negative infinity in time
+	 *            earliest end time of the tasks. If null, it means negative infinity in time
 	 * @param end
-	 *            latest end time of the tasks. If null, it means positive infinity in time
+	 *            latest start time of the tasks. If null, it means positive infinity in time
 	 * @param validOnly
 	 *            whether to consider only the tasks that are in valid status.
 	 * @return a list of unique pairs of conflicting tasks. The list consists of object arrays of length 2, where the
-	 *         objects are taskId's as BigInteger.
+	 *         objects are taskId's as BigInteger, the smaller one first.
 	 * 
 	 */
 	public List<Object[]> findConflictingTasks(long scheduleId, Long start, Long end, boolean validOnly) {
 		/*
-		 * they dont' have the same id, and they have the same schedule id, and they are over this date range, and they
-		 * aren't both "FIXED".
+		 * the tasks are streamed in order of start time through a sweep line instead of joining Task with itself. Only
+		 * the first task of a pair needs to be in the time range; the other will be included anyway even if it is
+		 * outside the range, so the range can't be used to restrict the query. Instead, reading stops as soon as no
+		 * more pairs are possible.
 		 */
-		StringBuilder queryBldr = new StringBuilder("SELECT t1.id id1, t2.id id2  FROM  Task t1 join Task t2 on \n"
-				+ "		((t1.start <= t2.start and t2.start < t1.end)\n"
-				+ "		or (t1.start < t2.end and t2.end <= t1.end)\n"
-				+ "		or (t2.start <= t1.start and t1.start < t2.end) \n"
-				+ "		or (t2.start < t1.end and t1.end <= t2.end)\n"
-				+ "		)\n" + "		and t1.id != t2.id\n" + "		and t1.scheduleId = t2.scheduleId\n"
-				+ "	    and t1.scheduleId = :scheduleId "
-				+ "		and not( t1.taskType = 'FIXED' and t2.taskType = 'FIXED') " + "		and t1.start <= t2.start "
-				+ "		and t1.id < t2.id ");
-		if (start != null) {
-			if (end != null) {
-				/*
-				 * not checking for t2.start and t2.end. If one of the overlapping tasks is in the time range, the other
-				 * will be included anyway even if it is outside the time range
-				 */
-				queryBldr
-						.append(" and ((t1.start >= :start and t1.start < :end) or (t1.end > :start and t1.end <= :end)"
-								+ "  or (t1.start <= :start and t1.end >= :end))");
-			} else {
-				queryBldr.append(" and t1.end > :start");
-			}
-		} else {
-			if (end != null) {
-				queryBldr.append(" and t1.start < :end");
-			}
-		}
-		if (validOnly) {
-			queryBldr.append(" and (t1.schedulingStatus = 'VALID' or t2.schedulingStatus = 'VALID')");
-		}
+		return findConflictingTasks(scheduleId, start, end, validOnly, false);
+	}
 
-		Query query = getSession().createSQLQuery(queryBldr.toString());
+	/**
+	 * Same as {@link #findConflictingTasks(long, Long, Long, boolean)}, but only the tasks that overlap the time range
+	 * are read, using the range condition on start and end. This finds all the pairs that include a task that is
+	 * within the range, so it is enough for checking the neighborhood of tasks that have changed; pairs in which
+	 * one of the tasks starts after the end of the range may be missed.
+	 */
+	public List<Object[]> findConflictingTasksNear(long scheduleId, long start, long end, boolean validOnly) {
+		return findConflictingTasks(scheduleId, start, end, validOnly, true);
+	}
 
-		List<String> namedParams = Arrays.asList(query.getNamedParameters());
-		query.setLong("scheduleId", scheduleId);
+	private List<Object[]> findConflictingTasks(long scheduleId, Long start, Long end, boolean validOnly,
+			boolean onlyInRange) {
+		StringBuilder queryBldr = new StringBuilder("select task.id id, task.start start, task.end end, "
+				+ "task.taskType taskType, task.schedulingStatus schedulingStatus from Task task "
+				+ "where task.scheduleId = :scheduleId and task.start is not null and task.end is not null ");
+		if (onlyInRange) {
+			queryBldr.append(" and task.start < :end and task.end > :start ");
+		}
+		queryBldr.append(" order by task.start asc, task.id asc");
 
-		if (namedParams.contains("start")) {
+		SQLQuery query = getSession().createSQLQuery(queryBldr.toString()).addSynchronizedQuerySpace("Task");
+		query.addScalar("id", StandardBasicTypes.LONG).addScalar("start", StandardBasicTypes.LONG)
+				.addScalar("end", StandardBasicTypes.LONG).addScalar("taskType", StandardBasicTypes.STRING)
+				.addScalar("schedulingStatus", StandardBasicTypes.STRING);
+		query.setLong("scheduleId", scheduleId);
+		if (onlyInRange) {
 			query.setLong("start", start);
-		}
-		if (namedParams.contains("end")) {
 			query.setLong("end", end);
 		}
-		List result = query.list();
+		/* makes the mysql driver stream the rows rather than read them all into memory */
+		query.setFetchSize(Integer.MIN_VALUE);
+
+		ConflictDetector detector = new ConflictDetector(start, end, validOnly);
+		String fixed = Task.TaskType.FIXED.toString();
+		String valid = Task.SchedulingStatus.VALID.toString();
+		ScrollableResults rows = query.scroll(ScrollMode.FORWARD_ONLY);
+		try {
+			while (!detector.isDone() && rows.next()) {
+				detector.add(rows.getLong(0), rows.getLong(1), rows.getLong(2), fixed.equals(rows.getString(3)),
+						valid.equals(rows.getString(4)));
+			}
+		} finally {
+			rows.close();
+		}
+
+		List<Object[]> result = new ArrayList<Object[]>(detector.getConflicts().size());
+		for (long[] pair : detector.getConflicts()) {
+			result.add(new Object[] { BigInteger.valueOf(pair[0]), BigInteger.valueOf(pair[1]) });
+		}
 		return result;
 	}
 
 	/**
-	 * Find floating tasks that are badly ordered, i.e. they are ordered after a task that is not valid, or they are
-	 * supposed to be ordered after a task by they are not actually scheduled after it. 
+	 * Builds the graph of the order between the tasks of the schedule, i.e. of the tasks that are ordered after another
+	 * task and the tasks they are ordered after. Only the columns needed for checking the order are read, so no tasks
+	 * are loaded into the session.
 	 * 
 	 * @param scheduleId
-	 * @return a list of the id's of the badly ordered tasks as BigInteger.
+	 *            which schedule the tasks belong to
 	 */
-	public List<BigInteger> findBadlyOrderedTasks(long scheduleId) {
-		/*
-		 * and they dont' have the same id, and they have the same schedule id, and they are over this date range, and
-		 * they aren't both "FIXED".
-		 */
-		StringBuilder queryBldr = new StringBuilder(
-				"select t2.id id2\n"
-						+ "from\n" + "    Task t1\n" + "        join\n"
-						+ "    Task t2 ON t2.previousTaskId = t1.id and \n"
-						+ "    (t1.schedulingStatus not in ('VALID' , 'DONE') \n"
-						+ "        or t1.start = null or not t2.start >= t1.end \n"
-						+ "        or (t2.immediatelyFollowsPrevious and t2.start != t1.end)\n"
-						+ "    ) \n" + "    and t2.schedulingStatus = 'VALID' "
-						+ "	 and t1.scheduleId = t2.scheduleId\n" + "	 and t1.scheduleId = :scheduleId ");
+	public OrderGraph findOrderGraph(long scheduleId) {
+		OrderGraph graph = new OrderGraph();
+		addToOrderGraph(graph, scheduleId, "task.previousTaskId is not null or task.id in "
+				+ "(select t.previousTaskId from Task t where t.scheduleId = :scheduleId)", null);
+		return graph;
+	}
 
-		Query query = getSession().createSQLQuery(queryBldr.toString());
+	/**
+	 * Adds the given tasks of the schedule to the graph, together with the tasks they are ordered after, so that the
+	 * order of the given tasks can be checked. Tasks that are already in the graph are left as they are.
+	 * 
+	 * @return the ids of the tasks that were added
+	 */
+	public List<Long> addTasksToOrderGraph(OrderGraph graph, long scheduleId, Collection<Long> taskIds) {
+		return addToOrderGraph(graph, scheduleId, "task.id in (:ids) or task.id in "
+				+ "(select t.previousTaskId from Task t where t.scheduleId = :scheduleId and t.id in (:ids))", taskIds);
+	}
 
-		query.setLong("scheduleId", scheduleId);
+	/**
+	 * Adds the tasks of the schedule that are ordered right after the given tasks to the graph, using the index on
+	 * (scheduleId, previousTaskId). Tasks that are already in the graph are left as they are.
+	 * 
+	 * @return the ids of the tasks that were added
+	 */
+	public List<Long> addFollowersToOrderGraph(OrderGraph graph, long scheduleId, Collection<Long> taskIds) {
+		return addToOrderGraph(graph, scheduleId, "task.previousTaskId in (:ids)", taskIds);
+	}
 
-		List result = query.list();
-		return result;
+	/*
+	 * Adds the tasks of the schedule that match the condition to the graph. If ids is not null, the condition is run
+	 * with up to UPDATE_STATUS_CHUNK of them at a time as the :ids parameter.
+	 */
+	private List<Long> addToOrderGraph(OrderGraph graph, long scheduleId, String condition, Collection<Long> ids) {
+		String queryStr = "select task.id id, task.previousTaskId previousTaskId, task.schedulingStatus schedulingStatus, "
+				+ "task.start start, task.end end, task.immediatelyFollowsPrevious immediatelyFollowsPrevious "
+				+ "from Task task where task.scheduleId = :scheduleId and (" + condition + ")";
+		List<Long> added = new ArrayList<Long>();
+		if (ids != null && ids.isEmpty()) {
+			return added;
+		}
+		List<Long> idList = ids == null ? null : new ArrayList<Long>(ids);
+		int i = 0;
+		do {
+			/*
+			 * synchronizing on the Task table so that pending changes to tasks in the session are flushed first
+			 */
+			SQLQuery query = getSession().createSQLQuery(queryStr).addSynchronizedQuerySpace("Task");
+			query.addScalar("id", StandardBasicTypes.LONG).addScalar("previousTaskId", StandardBasicTypes.LONG)
+					.addScalar("schedulingStatus", StandardBasicTypes.STRING)
+					.addScalar("start", StandardBasicTypes.LONG).addScalar("end", StandardBasicTypes.LONG)
+					.addScalar("immediatelyFollowsPrevious", StandardBasicTypes.BOOLEAN);
+			query.setLong("scheduleId", scheduleId);
+			if (idList != null) {
+				query.setParameterList("ids", idList.subList(i, Math.min(i + UPDATE_STATUS_CHUNK, idList.size())));
+			}
+			for (Object[] row : (List<Object[]>) query.list()) {
+				Long id = (Long) row[0];
+				if (graph.contains(id)) {
+					continue;
+				}
+				Task.SchedulingStatus status = row[2] == null ? null : Task.SchedulingStatus.valueOf((String) row[2]);
+				graph.add(id, (Long) row[1], status, (Long) row[3], (Long) row[4], Boolean.TRUE.equals(row[5]));
+				added.add(id);
+			}
+			i += UPDATE_STATUS_CHUNK;
+		} while (idList != null && i < idList.size());
+		return added;
 	}
 
 	/**
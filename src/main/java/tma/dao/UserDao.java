@@ -97,36 +97,18 @@ public class UserDao extends BaseDao{
 	}
 	
 	/**
-	 * Check if user has task by id.  
-	 * @return true if this combination of user and task exists, false otherwise
+	 * Finds the ids of the schedules of the user.
+	 * @return an empty list if the user doesn't exist or has no schedules.
 	 */
-	public boolean hasTask(long userId, long taskId){
-		String queryStr = "select 1 from Task t join UserSchedule us on us.scheduleId = t.scheduleId and us.userId = "
-				+ ":userId and t.id = :taskId";
+	public List<BigInteger> findScheduleIds(long userId){
+		String queryStr = "select us.scheduleId from UserSchedule us where us.userId = :userId";
 		
 		Query query =  getSession().createSQLQuery(queryStr);
 		
 		query.setLong("userId", userId);
-		query.setLong("taskId", taskId);
 		
 		List result = query.list();
-		return result.size() > 0;
-	}
-	
-	/**
-	 * Check if user has schedule by id.
-	 * @return true if this combination of user and schedule exists, false otherwise 
-	 */
-	public boolean hasSchedule(long userId, long scheduleId){
-		String queryStr = "select 1 from UserSchedule us where us.scheduleId = :scheduleId and us.userId = :userId";
-		
-		Query query =  getSession().createSQLQuery(queryStr);
-		
-		query.setLong("userId", userId);
-		query.setLong("scheduleId", scheduleId);
-		
-		List result = query.list();
-		return result.size() > 0;
+		return result;
 	}
 	
 	public List<BigInteger> getDemoUsers(Long createdBefore){
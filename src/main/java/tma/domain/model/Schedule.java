@@ -11,7 +11,11 @@ import tma.exceptions.BadInput;
  * Represents a schedule, which conceptually consists of a bunch of tasks. However, the tasks are not included as
  * associations of the schedule, so they are not reachable directly from the schedule. This is for performance reasons
  * as a schedule probably contains large numbers of tasks. Service methods are available elsewhere for finding the tasks
- * of a schedule.
+ * of a schedule. <br/>
+ * 
+ * Unlike the other entities, schedules are not in the second level cache: every change to the tasks of a schedule
+ * increments its version (see tma.service.TaskService), which hibernate does with an update that doesn't refresh the
+ * cached copy, so a cached schedule would have a stale version and the next change would fail on it.
  */
 @Entity
 public class Schedule extends BaseEntity {
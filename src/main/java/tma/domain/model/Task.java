@@ -20,6 +20,12 @@ import javax.persistence.ManyToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.OrderColumn;
 
+import org.hibernate.annotations.BatchSize;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
 import tma.domain.service.TaskGrouper;
@@ -36,6 +42,7 @@ import tma.exceptions.Assertion;
  **/
 
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Task extends BaseEntity {
 	public static final Logger LOGGER = Logger.getLogger(Task.class.getName());
 
@@ -60,6 +67,14 @@ public class Task extends BaseEntity {
 	@JoinTable(name = "TaskWindow", joinColumns = { @JoinColumn(name = "taskId") }, inverseJoinColumns = @JoinColumn(
 			name = "windowId"))
 	@OrderColumn
+	/*
+	 * Windows are loaded with separate selects rather than joined with the task, so that queries for tasks don't
+	 * return a row per window. The windows of up to this many tasks that are in the session are loaded by a single
+	 * select.
+	 */
+	@Fetch(FetchMode.SELECT)
+	@BatchSize(size = 100)
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 	private List<Window> windows = new ArrayList<Window>();
 	@OneToOne(cascade = CascadeType.ALL, fetch = FetchType.EAGER)
 	@JoinColumn(name = "dependsOnTaskId")
@@ -189,8 +204,8 @@ public class Task extends BaseEntity {
 					result = 1;
 				} else {
 					/*
-					 * order by id just so it is ordered by something consistently 
-					 * at most one of the id's can be null (if that window was just added and hasn't bee persisted yet).
+					 * order by id just so it is ordered by something consistently. Both id's are null only if both
+					 * windows are new, e.g. when importing a task; they are merged below anyway.
 					 */
 					if (w1.getId() != null && w2.getId() != null) {
 						result = w1.getId().compareTo(w2.getId());
@@ -201,7 +216,6 @@ public class Task extends BaseEntity {
 					} else if (w1.getId() != null && w2.getId() == null) {
 						result = 1;
 					} else {
-						Utils.assertTrue(false);
 						result = 0;
 					}
 				}
@@ -489,8 +503,9 @@ public class Task extends BaseEntity {
 		if (TaskType.FLOATING.equals(taskType)) {
 			removeWindows();
 			taskType = TaskType.FIXED;
-			if (start != null) {
+			if (start == null) {
 				start = new Date().getTime();
+				updateDerivedFields();
 			}
 			schedulingStatus = null;
 			immediatelyFollowsPrevious = null;
@@ -0,0 +1,44 @@
+package tma.domain.model;
+
+import java.util.List;
+
+/**
+ * What changed in the tasks of a schedule after some point, as returned to a client that wants to bring its copy of
+ * the tasks up to date: the tasks that were created or changed, as they are now, and the ids of the ones that were
+ * deleted or moved to another schedule. A value object; it is not persisted and does not change.
+ */
+public class TaskChanges {
+	private final long sequence;
+	private final boolean more;
+	private final List<Task> tasks;
+	private final List<Long> deletedTaskIds;
+
+	public TaskChanges(long sequence, boolean more, List<Task> tasks, List<Long> deletedTaskIds) {
+		this.sequence = sequence;
+		this.more = more;
+		this.tasks = tasks;
+		this.deletedTaskIds = deletedTaskIds;
+	}
+
+	/**
+	 * @return the point up to which the changes are included, to ask for the changes after it next time.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return whether there are more changes after {@link #getSequence()} that did not fit in this result.
+	 */
+	public boolean isMore() {
+		return more;
+	}
+
+	public List<Task> getTasks() {
+		return tasks;
+	}
+
+	public List<Long> getDeletedTaskIds() {
+		return deletedTaskIds;
+	}
+}
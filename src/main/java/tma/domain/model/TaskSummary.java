@@ -0,0 +1,63 @@
+package tma.domain.model;
+
+import tma.domain.model.Task.SchedulingStatus;
+import tma.domain.model.Task.TaskType;
+
+/**
+ * The fields of a {@link Task} that are needed for showing it on a calendar, i.e. without its windows, order,
+ * dependency and description. A value object; it is not persisted and does not change.
+ */
+public class TaskSummary {
+	private final long id;
+	private final String name;
+	private final Long start;
+	private final Long duration;
+	private final boolean allDay;
+	private final Long allDayOrder;
+	private final TaskType taskType;
+	private final SchedulingStatus schedulingStatus;
+
+	public TaskSummary(long id, String name, Long start, Long duration, boolean allDay, Long allDayOrder,
+			TaskType taskType, SchedulingStatus schedulingStatus) {
+		this.id = id;
+		this.name = name;
+		this.start = start;
+		this.duration = duration;
+		this.allDay = allDay;
+		this.allDayOrder = allDayOrder;
+		this.taskType = taskType;
+		this.schedulingStatus = schedulingStatus;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Long getStart() {
+		return start;
+	}
+
+	public Long getDuration() {
+		return duration;
+	}
+
+	public boolean isAllDay() {
+		return allDay;
+	}
+
+	public Long getAllDayOrder() {
+		return allDayOrder;
+	}
+
+	public TaskType getTaskType() {
+		return taskType;
+	}
+
+	public SchedulingStatus getSchedulingStatus() {
+		return schedulingStatus;
+	}
+}
@@ -13,6 +13,9 @@ import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
 import javax.persistence.OrderColumn;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import tma.exceptions.BadInput;
 import tma.exceptions.BadInputException;
 import tma.util.Utils;
@@ -25,6 +28,7 @@ import com.fasterxml.jackson.annotation.JsonProperty;
  * user has a unique name.
  */
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class User extends BaseEntity {
 	@Column(unique = true)
 	private String username;
@@ -47,6 +51,7 @@ public class User extends BaseEntity {
 	@JoinTable(name = "UserSchedule", joinColumns = { @JoinColumn(name = "userId") }, inverseJoinColumns = @JoinColumn(
 			name = "scheduleId"))
 	@OrderColumn
+	@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 	private List<Schedule> schedules = new ArrayList<Schedule>();
 	@JsonIgnore
 	private Long createDate;
@@ -6,6 +6,9 @@ import java.util.logging.Logger;
 
 import javax.persistence.Entity;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 import tma.exceptions.Assertion;
 import tma.exceptions.BadInput;
 import tma.util.Utils;
@@ -14,6 +17,7 @@ import tma.util.Utils;
  * Represents a window of opportunity for doing a task; basically it is a period of time.
  **/
 @Entity
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Window extends BaseEntity {
 	public static final Logger LOGGER = Logger.getLogger(Window.class.getName());
 
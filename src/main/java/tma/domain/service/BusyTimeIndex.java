@@ -0,0 +1,211 @@
+package tma.domain.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tma.exceptions.Assertion;
+import tma.util.Utils;
+
+/**
+ * An in-memory index of the busy time in a schedule. The busy time is kept as a sorted list of disjoint intervals
+ * [start, end), stored in primitive arrays. Intervals that overlap or touch are merged when they are added, so the
+ * index only knows that a period of time is busy, not which tasks occupy it. <br/>
+ *
+ * The index is meant to be built once (e.g. at the beginning of an auto-scheduling run) and then updated in place as
+ * tasks are placed, so that finding a free slot does not require a db query. It is safe for concurrent use; each method
+ * call is atomic. Busy time is kept to the millisecond, like the start and end of tasks, rather than rounded to slots.
+ */
+public class BusyTimeIndex {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private long[] starts;
+	private long[] ends;
+	private int size;
+
+	public BusyTimeIndex() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param capacity
+	 *            expected number of intervals; the index grows as needed.
+	 */
+	public BusyTimeIndex(int capacity) {
+		capacity = Math.max(capacity, 1);
+		starts = new long[capacity];
+		ends = new long[capacity];
+	}
+
+	/**
+	 * Marks the period [start, end) as busy.
+	 *
+	 * @throws Assertion
+	 *             if start >= end
+	 */
+	public synchronized void add(long start, long end) {
+		Utils.assertTrue(start < end);
+		/*
+		 * first interval that could be merged with the new one, i.e. the first one that ends at or after start.
+		 */
+		int first = firstEndingAtOrAfter(start);
+		/*
+		 * one past the last interval that could be merged, i.e. the ones that start at or before end.
+		 */
+		int last = first;
+		while (last < size && starts[last] <= end) {
+			last++;
+		}
+
+		if (first == last) {
+			/* no overlap, insert a new interval */
+			ensureCapacity(size + 1);
+			System.arraycopy(starts, first, starts, first + 1, size - first);
+			System.arraycopy(ends, first, ends, first + 1, size - first);
+			starts[first] = start;
+			ends[first] = end;
+			size++;
+		} else {
+			/* merge into the first overlapping interval and drop the rest */
+			starts[first] = Math.min(starts[first], start);
+			ends[first] = Math.max(ends[last - 1], end);
+			int removed = last - first - 1;
+			if (removed > 0) {
+				System.arraycopy(starts, last, starts, first + 1, size - last);
+				System.arraycopy(ends, last, ends, first + 1, size - last);
+				size -= removed;
+			}
+		}
+	}
+
+	/**
+	 * Finds the earliest time slot of the given duration that is not busy and lies between start and end.
+	 *
+	 * @param end
+	 *            if null, it means positive infinity in time
+	 * @return the start time of the slot, or null if it cannot be found
+	 */
+	public synchronized Long findFirstAvailableSlot(long start, Long end, long duration) {
+		if (end != null && !(end - start >= duration)) {
+			return null;
+		}
+		long candidate = start;
+		for (int i = firstEndingAfter(start); i < size; i++) {
+			if (starts[i] - candidate >= duration) {
+				break;
+			}
+			candidate = Math.max(candidate, ends[i]);
+			if (end != null && end - candidate < duration) {
+				return null;
+			}
+		}
+		if (end == null || end - candidate >= duration) {
+			return candidate;
+		}
+		return null;
+	}
+
+	/**
+	 * Checks if any part of the period [start, end) is busy.
+	 */
+	public synchronized boolean isBusy(long start, long end) {
+		int i = firstEndingAfter(start);
+		return i < size && starts[i] < end;
+	}
+
+	/**
+	 * Finds the busy intervals that overlap the period [start, end), cut to that period.
+	 *
+	 * @param start
+	 *            if null, it means negative infinity in time
+	 * @param end
+	 *            if null, it means positive infinity in time
+	 * @return the intervals in ascending order, each as an array of start and end.
+	 */
+	public synchronized List<long[]> findBusy(Long start, Long end) {
+		List<long[]> result = new ArrayList<long[]>();
+		for (int i = start == null ? 0 : firstEndingAfter(start); i < size && (end == null || starts[i] < end); i++) {
+			long busyStart = start == null ? starts[i] : Math.max(starts[i], start);
+			long busyEnd = end == null ? ends[i] : Math.min(ends[i], end);
+			result.add(new long[] { busyStart, busyEnd });
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the intervals in the period [start, end) that are not busy.
+	 *
+	 * @return the intervals in ascending order, each as an array of start and end.
+	 */
+	public synchronized List<long[]> findFree(long start, long end) {
+		List<long[]> result = new ArrayList<long[]>();
+		long freeStart = start;
+		for (int i = firstEndingAfter(start); i < size && starts[i] < end; i++) {
+			if (starts[i] > freeStart) {
+				result.add(new long[] { freeStart, starts[i] });
+			}
+			freeStart = ends[i];
+		}
+		if (freeStart < end) {
+			result.add(new long[] { freeStart, end });
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of disjoint busy intervals.
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	public synchronized long getStart(int index) {
+		Utils.assertTrue(index >= 0 && index < size);
+		return starts[index];
+	}
+
+	public synchronized long getEnd(int index) {
+		Utils.assertTrue(index >= 0 && index < size);
+		return ends[index];
+	}
+
+	/*
+	 * ends are sorted as well since the intervals are disjoint, so binary search on them
+	 */
+	private int firstEndingAtOrAfter(long time) {
+		int low = 0, high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (ends[mid] < time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int firstEndingAfter(long time) {
+		int low = 0, high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (ends[mid] <= time) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > starts.length) {
+			int newCapacity = Math.max(capacity, starts.length * 2);
+			long[] newStarts = new long[newCapacity];
+			long[] newEnds = new long[newCapacity];
+			System.arraycopy(starts, 0, newStarts, 0, size);
+			System.arraycopy(ends, 0, newEnds, 0, size);
+			starts = newStarts;
+			ends = newEnds;
+		}
+	}
+}
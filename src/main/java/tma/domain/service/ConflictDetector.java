@@ -0,0 +1,127 @@
+package tma.domain.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import tma.exceptions.Assertion;
+import tma.util.Utils;
+
+/**
+ * Finds the pairs of tasks that overlap in time with a sweep line. The tasks are fed to the detector one at a time in
+ * the order of their start time, so they can be streamed from a db cursor and don't have to be held in memory. The
+ * detector only keeps the tasks that are still "open" at the current position of the sweep line, i.e. the ones that
+ * end after the start of the last task it was given. Finding all the pairs costs O(n log n + k) for n tasks and k
+ * pairs. <br/>
+ *
+ * Pairs in which both tasks are fixed are not reported, since fixed tasks are allowed to overlap. Optionally, a pair is
+ * reported only if one of its tasks is in valid status, and only if the task of the pair that starts first is in a
+ * given time range.
+ */
+public class ConflictDetector {
+	private final Long rangeStart;
+	private final Long rangeEnd;
+	private final boolean validOnly;
+
+	private final PriorityQueue<Interval> open = new PriorityQueue<Interval>(16, new Comparator<Interval>() {
+		public int compare(Interval i1, Interval i2) {
+			return i1.end < i2.end ? -1 : (i1.end > i2.end ? 1 : 0);
+		}
+	});
+	/* how many of the open ones are in the time range */
+	private int openInRange;
+	private Interval last;
+	private final List<long[]> conflicts = new ArrayList<long[]>();
+
+	/**
+	 * @param rangeStart
+	 *            if not null, only the pairs in which the first task ends after this are reported.
+	 * @param rangeEnd
+	 *            if not null, only the pairs in which the first task starts before this are reported.
+	 * @param validOnly
+	 *            whether to report only the pairs in which at least one of the tasks is in valid status.
+	 */
+	public ConflictDetector(Long rangeStart, Long rangeEnd, boolean validOnly) {
+		this.rangeStart = rangeStart;
+		this.rangeEnd = rangeEnd;
+		this.validOnly = validOnly;
+	}
+
+	/**
+	 * Adds the next task to the sweep. Tasks must be added in ascending order of start, and in ascending order of id
+	 * when they start at the same time.
+	 *
+	 * @param fixed
+	 *            whether the task is of the fixed type
+	 * @param valid
+	 *            whether the task is in valid status
+	 * @throws Assertion
+	 *             if the task is not in order, or if start >= end
+	 */
+	public void add(long id, long start, long end, boolean fixed, boolean valid) {
+		Utils.assertTrue(start < end);
+		Utils.assertTrue(last == null || last.start < start || (last.start == start && last.id < id),
+				"tasks must be sorted by start and id");
+
+		while (!open.isEmpty() && open.peek().end <= start) {
+			close(open.poll());
+		}
+		/* everything still open starts before (or with) this one and ends after its start */
+		for (Interval other : open) {
+			if (other.inRange && !(other.fixed && fixed) && (!validOnly || other.valid || valid)) {
+				conflicts.add(new long[] { Math.min(other.id, id), Math.max(other.id, id) });
+			}
+		}
+
+		Interval interval = new Interval(id, start, end, fixed, valid, inRange(start, end));
+		open.add(interval);
+		if (interval.inRange) {
+			openInRange++;
+		}
+		last = interval;
+	}
+
+	/**
+	 * Checks whether adding more tasks can still produce pairs. This is the case once the sweep is past the end of the
+	 * time range and none of the open tasks are in the range, so the caller can stop reading tasks.
+	 */
+	public boolean isDone() {
+		return rangeEnd != null && last != null && last.start >= rangeEnd && openInRange == 0;
+	}
+
+	/**
+	 * @return the pairs found so far, each as an array of two task id's with the smaller id first.
+	 */
+	public List<long[]> getConflicts() {
+		return conflicts;
+	}
+
+	private void close(Interval interval) {
+		if (interval.inRange) {
+			openInRange--;
+		}
+	}
+
+	private boolean inRange(long start, long end) {
+		return (rangeStart == null || end > rangeStart) && (rangeEnd == null || start < rangeEnd);
+	}
+
+	private static class Interval {
+		private final long id;
+		private final long start;
+		private final long end;
+		private final boolean fixed;
+		private final boolean valid;
+		private final boolean inRange;
+
+		private Interval(long id, long start, long end, boolean fixed, boolean valid, boolean inRange) {
+			this.id = id;
+			this.start = start;
+			this.end = end;
+			this.fixed = fixed;
+			this.valid = valid;
+			this.inRange = inRange;
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package tma.domain.service;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.TimeZone;
+
+import tma.domain.model.TaskSummary;
+import tma.exceptions.Assertion;
+import tma.util.Utils;
+
+/**
+ * Groups the tasks of a period, such as the weeks shown by a month view, by the days they fall on. A task falls on
+ * every day it overlaps, with the same overlap rule as finding tasks: it starts before the day ends and ends after the
+ * day starts. The days start at midnight in a given time zone, so they are not all 24 hours long. <br/>
+ * 
+ * Each day keeps the number of its tasks and the first few of them: all-day tasks first, ordered by
+ * {@link TaskSummary#getAllDayOrder()}, then the other tasks in order of start. The tasks must be added in order of
+ * start, as they come from the db; then the grid is built in a single pass keeping only the tasks that will be shown.
+ */
+public class DayGrid {
+	/* dayStarts[i] is the start of day i, dayStarts[days.size()] the end of the last day */
+	private final long[] dayStarts;
+	private final List<Day> days;
+	private final int maxTasksPerDay;
+	/* the first day that doesn't end before the start of the last task added */
+	private int firstDay;
+	private Long lastStart;
+
+	/**
+	 * @param start
+	 *            any time in the first day
+	 * @param dayCount
+	 *            the number of days in the grid
+	 * @param maxTasksPerDay
+	 *            the number of tasks to keep for each day; the rest are only counted
+	 * @throws Assertion
+	 *             if dayCount or maxTasksPerDay is not positive, or timeZone is null
+	 */
+	public DayGrid(long start, int dayCount, TimeZone timeZone, int maxTasksPerDay) {
+		Utils.assertTrue(dayCount > 0 && maxTasksPerDay > 0 && timeZone != null);
+		this.maxTasksPerDay = maxTasksPerDay;
+		Calendar calendar = Calendar.getInstance(timeZone);
+		calendar.setTimeInMillis(start);
+		calendar.set(Calendar.HOUR_OF_DAY, 0);
+		calendar.set(Calendar.MINUTE, 0);
+		calendar.set(Calendar.SECOND, 0);
+		calendar.set(Calendar.MILLISECOND, 0);
+		dayStarts = new long[dayCount + 1];
+		days = new ArrayList<Day>(dayCount);
+		for (int i = 0; i <= dayCount; i++) {
+			dayStarts[i] = calendar.getTimeInMillis();
+			if (i > 0) {
+				days.add(new Day(dayStarts[i - 1], dayStarts[i]));
+			}
+			/* adding a day rather than 24 hours, which also works across daylight saving time changes */
+			calendar.add(Calendar.DAY_OF_MONTH, 1);
+		}
+	}
+
+	/**
+	 * @return the start of the first day
+	 */
+	public long getStart() {
+		return dayStarts[0];
+	}
+
+	/**
+	 * @return the end of the last day
+	 */
+	public long getEnd() {
+		return dayStarts[dayStarts.length - 1];
+	}
+
+	/**
+	 * Adds the task to the days it falls on. Tasks without a start are ignored.
+	 * 
+	 * @throws Assertion
+	 *             if the task starts before the previous one added
+	 */
+	public void add(TaskSummary task) {
+		if (task.getStart() == null || task.getDuration() == null) {
+			return;
+		}
+		long start = task.getStart();
+		long end = start + task.getDuration();
+		Utils.assertTrue(lastStart == null || lastStart <= start);
+		lastStart = start;
+		while (firstDay < days.size() && dayStarts[firstDay + 1] <= start) {
+			firstDay++;
+		}
+		for (int i = firstDay; i < days.size() && dayStarts[i] < end; i++) {
+			days.get(i).add(task);
+		}
+	}
+
+	/**
+	 * @return the days in order
+	 */
+	public List<Day> getDays() {
+		return days;
+	}
+
+	/**
+	 * A day of the grid.
+	 */
+	public class Day {
+		private final long start;
+		private final long end;
+		private int count;
+		/* at most maxTasksPerDay each; all-day ones sorted by allDayOrder, the others in order of start */
+		private final List<TaskSummary> allDayTasks = new ArrayList<TaskSummary>();
+		private final List<TaskSummary> otherTasks = new ArrayList<TaskSummary>();
+
+		private Day(long start, long end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		private void add(TaskSummary task) {
+			count++;
+			if (task.isAllDay()) {
+				int index = allDayTasks.size();
+				while (index > 0 && compareAllDay(task, allDayTasks.get(index - 1)) < 0) {
+					index--;
+				}
+				if (index < maxTasksPerDay) {
+					allDayTasks.add(index, task);
+					if (allDayTasks.size() > maxTasksPerDay) {
+						allDayTasks.remove(maxTasksPerDay);
+					}
+				}
+			} else if (otherTasks.size() < maxTasksPerDay) {
+				otherTasks.add(task);
+			}
+		}
+
+		public long getStart() {
+			return start;
+		}
+
+		public long getEnd() {
+			return end;
+		}
+
+		/**
+		 * @return the number of tasks that fall on this day, including the ones not returned by {@link #getTasks()}
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * @return the first tasks of the day, at most as many as the grid keeps per day.
+		 */
+		public List<TaskSummary> getTasks() {
+			List<TaskSummary> tasks = new ArrayList<TaskSummary>(allDayTasks);
+			for (int i = 0; i < otherTasks.size() && tasks.size() < maxTasksPerDay; i++) {
+				tasks.add(otherTasks.get(i));
+			}
+			return tasks;
+		}
+	}
+
+	/*
+	 * By allDayOrder, with the tasks that don't have one last; ties keep the order in which the tasks were added.
+	 */
+	private static int compareAllDay(TaskSummary task1, TaskSummary task2) {
+		Long order1 = task1.getAllDayOrder();
+		Long order2 = task2.getAllDayOrder();
+		if (order1 == null) {
+			return order2 == null ? 0 : 1;
+		}
+		if (order2 == null) {
+			return -1;
+		}
+		return order1.compareTo(order2);
+	}
+}
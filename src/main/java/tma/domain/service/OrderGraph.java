@@ -0,0 +1,149 @@
+package tma.domain.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import tma.domain.model.Task;
+import tma.domain.model.Task.SchedulingStatus;
+
+/**
+ * An in-memory graph of the order between the tasks of a schedule, i.e. of the chains formed by
+ * {@link Task#getPreviousTaskId()}. Only the fields that are needed for checking the order are kept. <br/>
+ *
+ * A task is badly ordered if it is valid but its previous task is not valid (or done) or does not have a start time,
+ * or if it starts before its previous task ends, or if it should immediately follow its previous task but it doesn't.
+ * Invalidating a badly ordered task can cause the task that follows it to become badly ordered as well, so the
+ * invalidation spreads down the chain. The graph does that in a single pass, visiting only the tasks downstream of the
+ * ones that changed. <br/>
+ *
+ * The graph need not hold the whole schedule: the order of a task can be checked as long as the task it follows is in
+ * the graph, and the invalidation spreads only as far as the graph goes, so the graph can be grown one step down the
+ * chains at a time, by adding the followers of the tasks found badly ordered and checking them in turn.
+ */
+public class OrderGraph {
+	private final Map<Long, Node> nodes = new HashMap<Long, Node>();
+	/* previousTaskId -> the task that follows it */
+	private final Map<Long, Node> followers = new HashMap<Long, Node>();
+
+	/**
+	 * Adds a task to the graph.
+	 *
+	 * @param previousTaskId
+	 *            the task this one follows; null if it is not ordered
+	 * @param status
+	 *            the scheduling status of the task; null for fixed tasks
+	 */
+	public void add(long id, Long previousTaskId, SchedulingStatus status, Long start, Long end,
+			boolean immediatelyFollowsPrevious) {
+		Node node = new Node(id, previousTaskId, status, start, end, immediatelyFollowsPrevious);
+		nodes.put(id, node);
+		if (previousTaskId != null) {
+			followers.put(previousTaskId, node);
+		}
+	}
+
+	/**
+	 * Finds the tasks that are badly ordered, looking at all the tasks in the graph.
+	 *
+	 * @return the ids of the badly ordered tasks, including the ones that are badly ordered only because a task before
+	 *         them is.
+	 */
+	public List<Long> findBadlyOrdered() {
+		return findBadlyOrdered(new ArrayList<Long>(nodes.keySet()));
+	}
+
+	/**
+	 * Finds the tasks that are badly ordered, looking only at the given tasks and the ones downstream of them. The
+	 * tasks found are marked as invalid in the graph.
+	 *
+	 * @param changedTaskIds
+	 *            the tasks that have changed (in time, status or order) since the graph was last consistent. Ids that
+	 *            are not in the graph are ignored.
+	 * @return the ids of the badly ordered tasks, including the ones that are badly ordered only because a task before
+	 *         them is.
+	 */
+	public List<Long> findBadlyOrdered(Collection<Long> changedTaskIds) {
+		List<Long> result = new ArrayList<Long>();
+		LinkedList<Node> changed = new LinkedList<Node>();
+		for (Long id : changedTaskIds) {
+			Node node = nodes.get(id);
+			if (node != null) {
+				if (invalidateIfBadlyOrdered(node)) {
+					result.add(node.id);
+				}
+				changed.add(node);
+			}
+		}
+		/*
+		 * a task needs to be looked at again only if the one before it changed. Each task can be invalidated only once,
+		 * so this ends even if the chains are broken into a cycle.
+		 */
+		while (!changed.isEmpty()) {
+			Node node = changed.removeFirst();
+			Node follower = followers.get(node.id);
+			if (follower != null && invalidateIfBadlyOrdered(follower)) {
+				result.add(follower.id);
+				changed.add(follower);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return whether the task is in the graph
+	 */
+	public boolean contains(long id) {
+		return nodes.containsKey(id);
+	}
+
+	/**
+	 * @return the number of tasks in the graph
+	 */
+	public int size() {
+		return nodes.size();
+	}
+
+	private boolean invalidateIfBadlyOrdered(Node node) {
+		if (!SchedulingStatus.VALID.equals(node.status) || node.previousTaskId == null) {
+			return false;
+		}
+		Node previous = nodes.get(node.previousTaskId);
+		if (previous == null) {
+			return false;
+		}
+		boolean bad = (previous.status != null && !SchedulingStatus.VALID.equals(previous.status) && !SchedulingStatus.DONE
+				.equals(previous.status))
+				|| previous.start == null
+				|| previous.end == null
+				|| node.start == null
+				|| node.start < previous.end
+				|| (node.immediatelyFollowsPrevious && !node.start.equals(previous.end));
+		if (bad) {
+			node.status = SchedulingStatus.INVALID;
+		}
+		return bad;
+	}
+
+	private static class Node {
+		private final long id;
+		private final Long previousTaskId;
+		private SchedulingStatus status;
+		private final Long start;
+		private final Long end;
+		private final boolean immediatelyFollowsPrevious;
+
+		private Node(long id, Long previousTaskId, SchedulingStatus status, Long start, Long end,
+				boolean immediatelyFollowsPrevious) {
+			this.id = id;
+			this.previousTaskId = previousTaskId;
+			this.status = status;
+			this.start = start;
+			this.end = end;
+			this.immediatelyFollowsPrevious = immediatelyFollowsPrevious;
+		}
+	}
+}
@@ -0,0 +1,284 @@
+package tma.domain.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import tma.domain.model.Task;
+import tma.domain.model.Window;
+import tma.exceptions.Assertion;
+import tma.util.Utils;
+
+/**
+ * Plans the placement of floating tasks in a schedule entirely in memory. The planner is given the tasks of the
+ * schedule that it needs to know about (the ones to be placed and the ones they may be ordered after) and the busy time
+ * of the schedule. It assigns start times and scheduling statuses to the tasks and keeps the busy time up to date as
+ * tasks are placed. Nothing is read from or written to persistent storage. <br/>
+ *
+ * Groups of tasks can be planned one after another on the calling thread or in parallel, see
+ * {@link #planParallel(List, long, ForkJoinPool)}.
+ */
+public class SchedulePlanner {
+	private final BusyTimeIndex busyTime;
+	private final Map<Long, Task> tasksById;
+	private ProgressListener progressListener;
+
+	/**
+	 * Gets told about the progress of planning, e.g. to report it to a user waiting for it.
+	 */
+	public interface ProgressListener {
+		/**
+		 * Called once before any task is placed.
+		 */
+		void planningStarted(int taskCount);
+
+		/**
+		 * Called after each task is placed or fails to be placed. When planning in parallel, it can be called from
+		 * several threads at the same time.
+		 */
+		void taskPlanned(Task task, boolean placed);
+	}
+
+	/**
+	 * @param busyTime
+	 *            the time that is already taken in the schedule. It is updated as tasks are placed.
+	 * @param tasks
+	 *            tasks of the schedule by which ordered tasks can look up their previous task.
+	 */
+	public SchedulePlanner(BusyTimeIndex busyTime, Collection<Task> tasks) {
+		this.busyTime = busyTime;
+		this.tasksById = new HashMap<Long, Task>(tasks.size() * 2);
+		for (Task task : tasks) {
+			tasksById.put(task.getId(), task);
+		}
+	}
+
+	public void setProgressListener(ProgressListener progressListener) {
+		this.progressListener = progressListener;
+	}
+
+	/**
+	 * Places the given groups of tasks one after another, as built by
+	 * {@link TaskGrouper#buildOrderedTaskGroups(Collection)}. Within a group, tasks are placed in order, so a task is
+	 * always placed after the task it follows.
+	 *
+	 * @return the ids of the tasks that could not be placed.
+	 */
+	public List<Long> plan(List<List<Task>> groups, long earliestStartTime) {
+		notifyStarted(groups);
+		return planGroups(groups, earliestStartTime);
+	}
+
+	private List<Long> planGroups(List<List<Task>> groups, long earliestStartTime) {
+		List<Long> failed = new ArrayList<Long>();
+		for (List<Task> group : groups) {
+			for (Task task : group) {
+				boolean placed = place(task, earliestStartTime);
+				if (!placed) {
+					failed.add(task.getId());
+				}
+				if (progressListener != null) {
+					progressListener.taskPlanned(task, placed);
+				}
+			}
+		}
+		return failed;
+	}
+
+	private void notifyStarted(List<List<Task>> groups) {
+		if (progressListener != null) {
+			int count = 0;
+			for (List<Task> group : groups) {
+				count += group.size();
+			}
+			progressListener.planningStarted(count);
+		}
+	}
+
+	/**
+	 * Does the same as {@link #plan(List, long)}, but plans independent groups at the same time in the given pool.
+	 * Groups whose windows cannot overlap are independent: whatever one of them is placed at does not affect where the
+	 * other can be placed. Groups whose windows can overlap are planned one after another in the order in which they
+	 * were given, so the result is the same as with {@link #plan(List, long)} from run to run.
+	 *
+	 * @return the ids of the tasks that could not be placed, in the same order as {@link #plan(List, long)}.
+	 */
+	public List<Long> planParallel(List<List<Task>> groups, final long earliestStartTime, ForkJoinPool pool) {
+		notifyStarted(groups);
+		List<List<List<Task>>> components = buildIndependentComponents(groups, earliestStartTime);
+		if (components.size() > 1) {
+			List<RecursiveAction> actions = new ArrayList<RecursiveAction>();
+			for (final List<List<Task>> component : components) {
+				actions.add(new RecursiveAction() {
+					protected void compute() {
+						planGroups(component, earliestStartTime);
+					}
+				});
+			}
+			final List<RecursiveAction> all = actions;
+			pool.invoke(new RecursiveAction() {
+				protected void compute() {
+					invokeAll(all);
+				}
+			});
+		} else {
+			planGroups(groups, earliestStartTime);
+		}
+
+		List<Long> failed = new ArrayList<Long>();
+		for (List<Task> group : groups) {
+			for (Task task : group) {
+				if (!Task.SchedulingStatus.VALID.equals(task.getSchedulingStatus())) {
+					failed.add(task.getId());
+				}
+			}
+		}
+		return failed;
+	}
+
+	/*
+	 * Splits the groups into components such that the time spans of groups in different components do not overlap.
+	 * Sweeps over the groups sorted by the beginning of their span; a group that begins before the end of the current
+	 * component joins it. The groups in a component keep the order in which they were given.
+	 */
+	private static List<List<List<Task>>> buildIndependentComponents(List<List<Task>> groups, long earliestStartTime) {
+		final int count = groups.size();
+		final long[] spanStarts = new long[count];
+		final long[] spanEnds = new long[count];
+		List<Integer> order = new ArrayList<Integer>(count);
+		for (int i = 0; i < count; i++) {
+			long[] span = span(groups.get(i), earliestStartTime);
+			spanStarts[i] = span[0];
+			spanEnds[i] = span[1];
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				if (spanStarts[i1] != spanStarts[i2]) {
+					return spanStarts[i1] < spanStarts[i2] ? -1 : 1;
+				}
+				return i1.compareTo(i2);
+			}
+		});
+
+		List<List<Integer>> componentIndexes = new ArrayList<List<Integer>>();
+		List<Integer> current = null;
+		long currentEnd = Long.MIN_VALUE;
+		for (Integer i : order) {
+			/* a group that cannot be placed anywhere does not touch the busy time, so it is independent */
+			boolean empty = spanStarts[i] >= spanEnds[i];
+			if (current == null || empty || spanStarts[i] >= currentEnd) {
+				current = new ArrayList<Integer>();
+				componentIndexes.add(current);
+				currentEnd = Long.MIN_VALUE;
+			}
+			current.add(i);
+			if (!empty) {
+				currentEnd = Math.max(currentEnd, spanEnds[i]);
+			}
+		}
+
+		List<List<List<Task>>> components = new ArrayList<List<List<Task>>>(componentIndexes.size());
+		for (List<Integer> indexes : componentIndexes) {
+			Collections.sort(indexes);
+			List<List<Task>> component = new ArrayList<List<Task>>(indexes.size());
+			for (Integer i : indexes) {
+				component.add(groups.get(i));
+			}
+			components.add(component);
+		}
+		return components;
+	}
+
+	/*
+	 * The period of time [start, end) in which the tasks of the group can possibly be placed: from earliestStartTime
+	 * (or the beginning of the earliest window, if later) to the end of the latest window. A task without windows can
+	 * be placed anywhere after earliestStartTime.
+	 */
+	private static long[] span(List<Task> group, long earliestStartTime) {
+		long start = Long.MAX_VALUE;
+		long end = Long.MIN_VALUE;
+		for (Task task : group) {
+			if (task.getWindows().isEmpty()) {
+				start = Math.min(start, earliestStartTime);
+				end = Long.MAX_VALUE;
+			}
+			for (Window window : task.getWindows()) {
+				long windowStart = window.getStart() == null ? earliestStartTime : Math.max(window.getStart(),
+						earliestStartTime);
+				long windowEnd = window.getEnd() == null ? Long.MAX_VALUE : window.getEnd();
+				start = Math.min(start, windowStart);
+				end = Math.max(end, windowEnd);
+			}
+		}
+		return new long[] { start, end };
+	}
+
+	/**
+	 * Schedules a single floating task in the first available slot that is after earliestStartTime, after its
+	 * previous task (if any) and in one of its windows. If successful, the task status is set to valid and the slot is
+	 * marked as busy; otherwise the task status is set to failed.
+	 *
+	 * @throws Assertion
+	 *             if the task is not floating
+	 * @return whether the task was placed
+	 */
+	public boolean place(Task task, long earliestStartTime) {
+		Utils.assertTrue(task != null);
+		Utils.assertTrue(Task.TaskType.FLOATING.equals(task.getTaskType()));
+
+		Long previousId = task.getPreviousTaskId();
+		Task previous = null;
+		/* if previous task exists, must be properly scheduled. */
+		if (previousId != null) {
+			previous = tasksById.get(previousId);
+			/* todo 11x: think if done might also be ok previous task status */
+			if (previous != null && Task.SchedulingStatus.VALID.equals(previous.getSchedulingStatus())) {
+				earliestStartTime = Math.max(earliestStartTime, previous.getStart());
+			/* not valid, cannot schedule this one */
+			} else {
+				task.setSchedulingStatus(Task.SchedulingStatus.FAILED);
+				return false;
+			}
+		}
+		Long availableStart = null;
+		List<Window> windows = task.getWindows();
+		for (Window window : windows) {
+			Long windowStart = null;
+			Long windowEnd = window.getEnd();
+			if (window.getStart() == null || window.getStart() < earliestStartTime) {
+				windowStart = earliestStartTime;
+			} else {
+				windowStart = window.getStart();
+			}
+			availableStart = busyTime.findFirstAvailableSlot(windowStart, windowEnd, task.getDuration());
+			if (availableStart != null) {
+				break;
+			}
+		}
+		if (windows.size() == 0) {
+			availableStart = busyTime.findFirstAvailableSlot(earliestStartTime, null, task.getDuration());
+		}
+
+		if (availableStart != null) {
+			if (previous != null && Boolean.TRUE.equals(task.getImmediatelyFollowsPrevious())
+					&& availableStart != previous.getStart() + previous.getDuration()) {
+				task.setSchedulingStatus(Task.SchedulingStatus.FAILED);
+			} else {
+				task.setSchedulingStatus(Task.SchedulingStatus.VALID);
+				task.setStart(availableStart);
+				task.updateDerivedFields();
+				busyTime.add(task.getStart(), task.getEnd());
+			}
+		} else {
+			task.setSchedulingStatus(Task.SchedulingStatus.FAILED);
+		}
+		return Task.SchedulingStatus.VALID.equals(task.getSchedulingStatus());
+	}
+}
@@ -48,6 +48,9 @@ public enum BadInput{
 	WINDOW_REQUIRED("Window is required"),
 	WINDOW_NOT_FOUND("Window was not found. It may have been deleted, or you may not be authorized to view it. " ),
 	
+	JOB_NOT_FOUND("Job was not found. It may have expired, or you may not be authorized to view it. " ),
+	ICALENDAR_INVALID("The calendar is not valid iCalendar data"),
+	
 	OBJECT_NULL_ID_REQUIRED("The id of the newly added object should be null"),
 	OBJECT_ID_REQUIRED("Id of the object is required"),
 	OBJECT_UPDATE_NOT_ALLOWED("One or more of the updated properties of this object is not allowed to be updated. See documentation for details. "),
@@ -3,8 +3,9 @@ package tma.exceptions;
 /**
  * This type of exception happens if an object is modified by two processes at the same time. <br/>
  * 
- * This is is extremely unlikely in this application since optimistic locking is not maintained between service calls
- * (only during service calls), but technically is still possible.
+ * Optimistic locking is not maintained between service calls (only during service calls), and the changes to a
+ * schedule that conflict are retried (see tma.service.ScheduleWriter), so this is only thrown if a change kept
+ * conflicting with others until it ran out of attempts.
  */
 public class ConcurrentException extends RuntimeException implements ServiceException {
 	public static final String MESSAGE = "The update you requested failed "
@@ -15,7 +16,7 @@ public class ConcurrentException extends RuntimeException implements ServiceExce
 	}
 
 	public int getStatusCode() {
-		return 500;
+		return 409;
 	}
 
 }
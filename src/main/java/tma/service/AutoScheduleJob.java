@@ -0,0 +1,123 @@
+package tma.service;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tma.domain.model.Task;
+import tma.domain.service.SchedulePlanner;
+
+/**
+ * An auto-scheduling run that is done in the background, see {@link AutoScheduleJobService}. Keeps track of the
+ * progress of the run so that it can be polled while the run is going on, and of the result once it is done.
+ */
+public class AutoScheduleJob implements SchedulePlanner.ProgressListener {
+	public enum Status {
+		/** waiting for a free worker */
+		QUEUED,
+		/** being planned */
+		RUNNING,
+		/** done and committed; see {@link AutoScheduleJob#getFailedTaskIds()} */
+		DONE,
+		/** nothing was changed; see {@link AutoScheduleJob#getErrorMessage()} */
+		ERROR
+	}
+
+	private final String id;
+	private final long scheduleId;
+	private volatile Status status = Status.QUEUED;
+	private final AtomicInteger total = new AtomicInteger();
+	private final AtomicInteger placed = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private volatile List<Long> failedTaskIds;
+	private volatile String errorMessage;
+	/* when the job was done, or null if it is not done yet */
+	private volatile Long finishedAt;
+
+	AutoScheduleJob(String id, long scheduleId) {
+		this.id = id;
+		this.scheduleId = scheduleId;
+	}
+
+	public void planningStarted(int taskCount) {
+		total.set(taskCount);
+	}
+
+	public void taskPlanned(Task task, boolean placed) {
+		if (placed) {
+			this.placed.incrementAndGet();
+		} else {
+			this.failed.incrementAndGet();
+		}
+	}
+
+	void started() {
+		status = Status.RUNNING;
+	}
+
+	void done(List<Long> failedTaskIds) {
+		this.failedTaskIds = failedTaskIds;
+		status = Status.DONE;
+		finishedAt = System.currentTimeMillis();
+	}
+
+	void error(String errorMessage) {
+		this.errorMessage = errorMessage;
+		status = Status.ERROR;
+		finishedAt = System.currentTimeMillis();
+	}
+
+	/**
+	 * Checks if the job was done before the given time.
+	 */
+	boolean finishedBefore(long time) {
+		Long finished = finishedAt;
+		return finished != null && finished < time;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public long getScheduleId() {
+		return scheduleId;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the number of tasks placed so far.
+	 */
+	public int getPlaced() {
+		return placed.get();
+	}
+
+	/**
+	 * @return the number of tasks that failed to be placed so far.
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/**
+	 * @return the number of tasks that are still to be planned.
+	 */
+	public int getRemaining() {
+		return Math.max(0, total.get() - placed.get() - failed.get());
+	}
+
+	/**
+	 * @return the result of {@link TaskService#autoSchedule(long, List, Long)} once the job is done; null before that.
+	 */
+	public List<Long> getFailedTaskIds() {
+		return failedTaskIds;
+	}
+
+	/**
+	 * @return the reason why the job ended with an error; null otherwise.
+	 */
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+}
@@ -0,0 +1,101 @@
+package tma.service;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Resource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.stereotype.Service;
+
+import tma.exceptions.BadInput;
+import tma.exceptions.BadInputException;
+import tma.exceptions.GeneralException;
+import tma.exceptions.ResourceException;
+import tma.exceptions.ServiceException;
+
+/**
+ * Runs {@link TaskService#autoSchedule(long, List, Long, boolean)} in the background, so that the caller does not have
+ * to wait for the planning of a big schedule. The runs are done by a bounded pool of workers (the
+ * autoScheduleExecutor bean); each run is a separate transaction. The progress and result of a run can be polled
+ * until some time after it is done (autoSchedule.jobExpiryMillis in tma.properties), after which it is forgotten.
+ */
+@Service
+public class AutoScheduleJobService {
+	public static final Logger LOGGER = Logger.getLogger(AutoScheduleJobService.class.getName());
+
+	@Autowired
+	private TaskService taskService;
+	@Resource(name = "autoScheduleExecutor")
+	private TaskExecutor autoScheduleExecutor;
+	@Value("${autoSchedule.jobExpiryMillis}")
+	private long jobExpiryMillis;
+
+	private final ConcurrentMap<String, AutoScheduleJob> jobs = new ConcurrentHashMap<String, AutoScheduleJob>();
+
+	/**
+	 * Queues an auto-scheduling run. The arguments are the same as for
+	 * {@link TaskService#autoSchedule(long, List, Long, boolean)}; they are checked when the run starts, and if they
+	 * are not valid the job ends with an error.
+	 * 
+	 * @throws ResourceException
+	 *             if too many runs are already queued
+	 * @return the id of the job, to be used with {@link #read(String)}
+	 */
+	public String submit(final long scheduleId, final List<Long> taskIds, final Long earliestStartTime,
+			final boolean parallel) {
+		removeExpiredJobs();
+		final AutoScheduleJob job = new AutoScheduleJob(UUID.randomUUID().toString(), scheduleId);
+		jobs.put(job.getId(), job);
+		try {
+			autoScheduleExecutor.execute(new Runnable() {
+				public void run() {
+					job.started();
+					try {
+						job.done(taskService.autoSchedule(scheduleId, taskIds, earliestStartTime, parallel, job));
+					} catch (RuntimeException e) {
+						if (!(e instanceof BadInputException)) {
+							LOGGER.log(Level.SEVERE, "Auto-scheduling job " + job.getId() + " failed", e);
+						}
+						job.error(e instanceof ServiceException ? ((ServiceException) e).getServiceExceptionMessage()
+								: GeneralException.MESSAGE);
+					}
+				}
+			});
+		} catch (TaskRejectedException e) {
+			jobs.remove(job.getId());
+			throw new ResourceException();
+		}
+		return job.getId();
+	}
+
+	/**
+	 * @throws BadInputException
+	 *             if there is no such job, e.g. because it has expired
+	 */
+	public AutoScheduleJob read(String jobId) {
+		removeExpiredJobs();
+		AutoScheduleJob job = jobId == null ? null : jobs.get(jobId);
+		if (job == null) {
+			throw new BadInputException(BadInput.JOB_NOT_FOUND);
+		}
+		return job;
+	}
+
+	private void removeExpiredJobs() {
+		long expired = System.currentTimeMillis() - jobExpiryMillis;
+		for (Iterator<AutoScheduleJob> it = jobs.values().iterator(); it.hasNext();) {
+			if (it.next().finishedBefore(expired)) {
+				it.remove();
+			}
+		}
+	}
+}
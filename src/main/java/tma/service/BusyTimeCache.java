@@ -0,0 +1,61 @@
+package tma.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.stereotype.Component;
+
+import tma.domain.service.BusyTimeIndex;
+
+/**
+ * Keeps the busy time of the most recently used schedules in memory, so that free/busy queries don't have to read the
+ * tasks of the schedule every time. <br/>
+ * 
+ * An entry is valid only for the version of the schedule it was built for. Every method of {@link TaskService} that
+ * changes the tasks of a schedule locks it, which increments its version on commit, so an entry becomes stale as soon
+ * as the schedule changes and is rebuilt on next use. Since the version is incremented only on commit, the cache must
+ * not be used in a transaction that has changed the schedule.
+ */
+@Component
+public class BusyTimeCache {
+	private static final int MAX_SCHEDULES = 1000;
+
+	private final Map<Long, Entry> entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+			return size() > MAX_SCHEDULES;
+		}
+	};
+
+	/**
+	 * @return the busy time of the schedule, or null if it is not cached for this version of the schedule. The
+	 *         returned index is shared and must not be modified.
+	 */
+	public synchronized BusyTimeIndex get(long scheduleId, Long version) {
+		Entry entry = entries.get(scheduleId);
+		if (entry == null || !entry.version.equals(version)) {
+			return null;
+		}
+		return entry.busyTime;
+	}
+
+	/**
+	 * Caches the busy time of the schedule for this version of the schedule, replacing the previous one if any.
+	 */
+	public synchronized void put(long scheduleId, Long version, BusyTimeIndex busyTime) {
+		if (version != null) {
+			entries.put(scheduleId, new Entry(version, busyTime));
+		}
+	}
+
+	private static class Entry {
+		private final Long version;
+		private final BusyTimeIndex busyTime;
+
+		private Entry(Long version, BusyTimeIndex busyTime) {
+			this.version = version;
+			this.busyTime = busyTime;
+		}
+	}
+}
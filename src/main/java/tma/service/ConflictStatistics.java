@@ -0,0 +1,135 @@
+package tma.service;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.springframework.stereotype.Component;
+
+import tma.util.Histogram;
+
+/**
+ * Counts the conflicts of the operations run by {@link ScheduleWriter}, i.e. the times that a transaction failed on
+ * the optimistic lock of its schedule because the schedule was changed by someone else at the same time, to show
+ * which operations and schedules are contended. For each operation, in total, and for each schedule it keeps the
+ * number of operations run, the number of conflicts (each of which caused a retry or a failure), the number of
+ * operations that failed because they still conflicted after the last attempt, and a histogram of how long the
+ * operations took, in milliseconds, including their retries. <br/>
+ *
+ * A schedule is only counted from its first conflict on, and only the MAX_SCHEDULES most recently conflicting ones are
+ * kept, so schedules that are never contended cost nothing. Since the ids of schedules are user data, the counts of
+ * the schedules are not returned by {@link #getStatistics()}; they are logged instead whenever an operation on a
+ * schedule fails because it kept conflicting. The counts are since the application started.
+ */
+@Component
+public class ConflictStatistics {
+	public static final Logger LOGGER = Logger.getLogger(ConflictStatistics.class.getName());
+	private static final int MAX_SCHEDULES = 1000;
+
+	private final Counters total = new Counters();
+	/* guarded by themselves */
+	private final Map<String, Counters> operations = new HashMap<String, Counters>();
+	private final Map<Long, Counters> schedules = new LinkedHashMap<Long, Counters>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Long, Counters> eldest) {
+			return size() > MAX_SCHEDULES;
+		}
+	};
+
+	/**
+	 * Records that an attempt of the operation on the schedule conflicted.
+	 */
+	public void conflicted(long scheduleId, String operation) {
+		Counters scheduleCounters;
+		synchronized (schedules) {
+			scheduleCounters = schedules.get(scheduleId);
+			if (scheduleCounters == null) {
+				scheduleCounters = new Counters();
+				schedules.put(scheduleId, scheduleCounters);
+			}
+		}
+		total.conflicts.incrementAndGet();
+		getOperation(operation).conflicts.incrementAndGet();
+		scheduleCounters.conflicts.incrementAndGet();
+	}
+
+	/**
+	 * Records that the operation on the schedule is done, after the given time including all its attempts.
+	 *
+	 * @param exhausted
+	 *            whether it failed because its last attempt conflicted
+	 */
+	public void done(long scheduleId, String operation, long millis, boolean exhausted) {
+		Counters scheduleCounters;
+		synchronized (schedules) {
+			scheduleCounters = schedules.get(scheduleId);
+		}
+		total.done(millis, exhausted);
+		getOperation(operation).done(millis, exhausted);
+		if (scheduleCounters != null) {
+			scheduleCounters.done(millis, exhausted);
+			if (exhausted) {
+				LOGGER.warning("Operation " + operation + " on schedule " + scheduleId
+						+ " failed since it kept conflicting with other changes; the schedule's counts so far are "
+						+ scheduleCounters.toMap());
+			}
+		}
+	}
+
+	/**
+	 * Returns the counts in total and for each operation. See {@link ConflictStatistics}.
+	 */
+	public Map<String, Object> getStatistics() {
+		Map<String, Object> result = new LinkedHashMap<String, Object>();
+		result.put("total", total.toMap());
+
+		Map<String, Object> operationsResult = new LinkedHashMap<String, Object>();
+		synchronized (operations) {
+			for (Map.Entry<String, Counters> entry : operations.entrySet()) {
+				operationsResult.put(entry.getKey(), entry.getValue().toMap());
+			}
+		}
+		result.put("operations", operationsResult);
+		return result;
+	}
+
+	private Counters getOperation(String operation) {
+		synchronized (operations) {
+			Counters counters = operations.get(operation);
+			if (counters == null) {
+				counters = new Counters();
+				operations.put(operation, counters);
+			}
+			return counters;
+		}
+	}
+
+	private static class Counters {
+		private final AtomicLong operations = new AtomicLong();
+		private final AtomicLong conflicts = new AtomicLong();
+		private final AtomicLong exhausted = new AtomicLong();
+		private final Histogram millis = new Histogram();
+
+		private void done(long millis, boolean exhausted) {
+			operations.incrementAndGet();
+			if (exhausted) {
+				this.exhausted.incrementAndGet();
+			}
+			this.millis.add(millis);
+		}
+
+		private Map<String, Object> toMap() {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			map.put("operations", operations.get());
+			map.put("conflicts", conflicts.get());
+			map.put("exhausted", exhausted.get());
+			map.put("p50Millis", millis.getPercentile(0.5));
+			map.put("p99Millis", millis.getPercentile(0.99));
+			map.put("millis", millis.getBuckets());
+			return map;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package tma.service;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Keeps in memory which schedules belong to the most recently active users, and which schedule the most recently used
+ * tasks belong to, so that checking that a user owns a schedule or a task usually doesn't need the db. See
+ * {@link UserService#hasSchedule(long, long)} and {@link UserService#hasTask(long, long)}. <br/>
+ * 
+ * The methods that change ownership (adding and removing schedules, moving and deleting tasks) invalidate the entries
+ * they affect, both right away and when their transaction ends. Since an entry may be read from the db before such a
+ * change is committed and put in the cache after it, each put carries the generation the cache had before the db was
+ * read, and is ignored if anything has been invalidated since.
+ */
+@Component
+public class OwnershipCache {
+	private static final int MAX_USERS = 10000;
+	private static final int MAX_TASKS = 100000;
+
+	/* user id -> the ids of the user's schedules, sorted */
+	private final Map<Long, long[]> userSchedules = new LinkedHashMap<Long, long[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+			return size() > MAX_USERS;
+		}
+	};
+	/* task id -> schedule id */
+	private final Map<Long, Long> taskSchedules = new LinkedHashMap<Long, Long>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+			return size() > MAX_TASKS;
+		}
+	};
+	/* incremented on every invalidation */
+	private long generation;
+
+	/**
+	 * @return the current generation, to be passed to the puts of the entries that are about to be read from the db.
+	 */
+	public synchronized long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return whether the user owns the schedule, or null if the schedules of the user are not cached.
+	 */
+	public synchronized Boolean hasSchedule(long userId, long scheduleId) {
+		long[] scheduleIds = userSchedules.get(userId);
+		if (scheduleIds == null) {
+			return null;
+		}
+		return Arrays.binarySearch(scheduleIds, scheduleId) >= 0;
+	}
+
+	/**
+	 * Caches the ids of all the schedules of the user, unless something has been invalidated since the given
+	 * generation.
+	 */
+	public synchronized void putSchedules(long userId, long[] scheduleIds, long readGeneration) {
+		if (readGeneration == generation) {
+			long[] sorted = scheduleIds.clone();
+			Arrays.sort(sorted);
+			userSchedules.put(userId, sorted);
+		}
+	}
+
+	/**
+	 * @return the id of the schedule of the task, or null if it is not cached.
+	 */
+	public synchronized Long getScheduleId(long taskId) {
+		return taskSchedules.get(taskId);
+	}
+
+	/**
+	 * Caches the schedule of the task, unless something has been invalidated since the given generation.
+	 */
+	public synchronized void putScheduleId(long taskId, long scheduleId, long readGeneration) {
+		if (readGeneration == generation) {
+			taskSchedules.put(taskId, scheduleId);
+		}
+	}
+
+	/**
+	 * To be called when a schedule is added to or removed from the user.
+	 */
+	public void invalidateUser(final long userId) {
+		removeUser(userId);
+		afterTransaction(new Runnable() {
+			public void run() {
+				removeUser(userId);
+			}
+		});
+	}
+
+	/**
+	 * To be called when the task is moved to another schedule or deleted.
+	 */
+	public void invalidateTask(final long taskId) {
+		removeTask(taskId);
+		afterTransaction(new Runnable() {
+			public void run() {
+				removeTask(taskId);
+			}
+		});
+	}
+
+	private synchronized void removeUser(long userId) {
+		generation++;
+		userSchedules.remove(userId);
+	}
+
+	private synchronized void removeTask(long taskId) {
+		generation++;
+		taskSchedules.remove(taskId);
+	}
+
+	private static void afterTransaction(final Runnable runnable) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCompletion(int status) {
+					runnable.run();
+				}
+			});
+		}
+	}
+}
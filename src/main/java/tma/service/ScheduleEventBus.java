@@ -0,0 +1,128 @@
+package tma.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Resource;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Tells whoever is showing a schedule, e.g. a calendar in a browser (see tma.web.ScheduleEventServlet), that its tasks
+ * have changed, so it can read them again instead of polling. {@link TaskService} publishes the schedules it changes.
+ * The listeners of a schedule are told only after the transaction that changed it commits, and at most once per
+ * events.coalesceMillis (in tma.properties) however many times it changed in the meantime. Schedules that nobody is
+ * listening to cost nothing. <br/>
+ *
+ * The listeners are called on the single thread of the scheduleEventScheduler bean, so they must be quick.
+ */
+@Component
+public class ScheduleEventBus {
+	public static final Logger LOGGER = Logger.getLogger(ScheduleEventBus.class.getName());
+
+	/**
+	 * Is told when a schedule it listens to changes.
+	 */
+	public interface Listener {
+		void scheduleChanged(long scheduleId);
+	}
+
+	@Resource(name = "scheduleEventScheduler")
+	private TaskScheduler scheduler;
+	@Value("${events.coalesceMillis}")
+	private long coalesceMillis;
+
+	/* all guarded by this */
+	private final Map<Long, List<Listener>> listeners = new HashMap<Long, List<Listener>>();
+	/* the schedules that changed since the last time the listeners were told */
+	private final Set<Long> changed = new LinkedHashSet<Long>();
+
+	private final Runnable notifier = new Runnable() {
+		public void run() {
+			notifyListeners();
+		}
+	};
+
+	/**
+	 * Publishes a change of the schedule. If there is a transaction, the change is published only if and when it
+	 * commits.
+	 */
+	public void publish(final long scheduleId) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					changed(scheduleId);
+				}
+			});
+		} else {
+			changed(scheduleId);
+		}
+	}
+
+	public synchronized void subscribe(long scheduleId, Listener listener) {
+		List<Listener> scheduleListeners = listeners.get(scheduleId);
+		if (scheduleListeners == null) {
+			scheduleListeners = new ArrayList<Listener>();
+			listeners.put(scheduleId, scheduleListeners);
+		}
+		scheduleListeners.add(listener);
+	}
+
+	/**
+	 * Removes the listener from the schedule; nothing happens if it is not listening to it.
+	 */
+	public synchronized void unsubscribe(long scheduleId, Listener listener) {
+		List<Listener> scheduleListeners = listeners.get(scheduleId);
+		if (scheduleListeners != null && scheduleListeners.remove(listener) && scheduleListeners.isEmpty()) {
+			listeners.remove(scheduleId);
+		}
+	}
+
+	/*
+	 * The first change after the listeners were last told schedules telling them again, after the coalescing interval.
+	 */
+	private synchronized void changed(long scheduleId) {
+		if (!listeners.containsKey(scheduleId)) {
+			return;
+		}
+		if (changed.isEmpty()) {
+			scheduler.schedule(notifier, new Date(System.currentTimeMillis() + coalesceMillis));
+		}
+		changed.add(scheduleId);
+	}
+
+	private void notifyListeners() {
+		Map<Long, List<Listener>> toNotify = new HashMap<Long, List<Listener>>();
+		synchronized (this) {
+			for (Long scheduleId : changed) {
+				List<Listener> scheduleListeners = listeners.get(scheduleId);
+				if (scheduleListeners != null) {
+					toNotify.put(scheduleId, new ArrayList<Listener>(scheduleListeners));
+				}
+			}
+			changed.clear();
+		}
+		/* outside the lock, since a listener may unsubscribe */
+		for (Map.Entry<Long, List<Listener>> entry : toNotify.entrySet()) {
+			for (Listener listener : entry.getValue()) {
+				try {
+					listener.scheduleChanged(entry.getKey());
+				} catch (RuntimeException e) {
+					LOGGER.log(Level.WARNING, "Listener of schedule " + entry.getKey() + " failed", e);
+				}
+			}
+		}
+	}
+}
@@ -23,13 +23,24 @@ public class ScheduleService {
 	/**
 	 * delegates to {@link ScheduleDao#read(long)}. See that for details. 
 	 */
+	@Transactional(readOnly = true)
 	public Schedule read(long id){
 	    return scheduleDao.read(id);
 	}
 	
+	/**
+	 * delegates to {@link ScheduleDao#readVersion(long)}. See that for details. The version changes whenever the tasks
+	 * of the schedule do, see {@link TaskService}.
+	 */
+	@Transactional(readOnly = true)
+	public long readVersion(long id) {
+		return scheduleDao.readVersion(id);
+	}
+
 	/**
 	 * delegates to {@link ScheduleDao#findSchedules(String)}. See that for details. 
 	 */
+	@Transactional(readOnly = true)
 	public List<Schedule> findSchedules(String name){
 		return scheduleDao.findSchedules(name);
 	}
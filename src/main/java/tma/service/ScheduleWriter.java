@@ -0,0 +1,283 @@
+package tma.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.hibernate.StaleStateException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import tma.exceptions.ConcurrentException;
+import tma.exceptions.ResourceException;
+
+/**
+ * Runs the operations that change a schedule one at a time, so that concurrent changes to the same schedule wait for
+ * each other in memory rather than fail at commit on the optimistic lock of the schedule (see
+ * {@link TaskService}) and have their work thrown away. <br/>
+ *
+ * The schedules are spread over writer.threads threads (in tma.properties) by id, each with its own queue, so the
+ * operations on one schedule are run in the order they were queued. The operations on the same schedule that are
+ * waiting together in a queue, up to writer.maxBatchSize, are run in a single transaction, as if they had been run one
+ * after the other. If that transaction fails, e.g. because one of the operations throws an exception, it is rolled back
+ * and each of the operations is run again in a transaction of its own, so an operation only ever fails because of
+ * itself. <br/>
+ *
+ * This only serializes the changes made within this instance of the application, and only the ones that are run
+ * through it; the optimistic lock of the schedule still protects against the others. An operation that fails on that
+ * lock, i.e. conflicts with a change made elsewhere, is run again after a random wait of up to writer.backoffMillis,
+ * doubled on each attempt, up to writer.maxAttempts in all. Since the transaction that conflicted was rolled back,
+ * nothing the operation did remains, so running it again does not apply it twice; only conflicts are retried, since
+ * other failures would fail the same way again. The conflicts are counted by {@link ConflictStatistics}.
+ */
+@Component
+public class ScheduleWriter {
+
+	/**
+	 * An operation that changes a schedule. It is run in a transaction, possibly together with other operations on the
+	 * same schedule, and possibly more than once (see {@link ScheduleWriter}), so its only side effects must be the ones
+	 * on the db, and it must not change its input, or must restore it when it is run again.
+	 */
+	public interface Operation<T> {
+		T run();
+	}
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+	@Autowired
+	private ConflictStatistics conflictStatistics;
+	@Value("${writer.threads}")
+	private int threadCount;
+	@Value("${writer.maxBatchSize}")
+	private int maxBatchSize;
+	@Value("${writer.queueCapacity}")
+	private int queueCapacity;
+	@Value("${writer.maxAttempts}")
+	private int maxAttempts;
+	@Value("${writer.backoffMillis}")
+	private long backoffMillis;
+
+	private final Random random = new Random();
+	private TransactionTemplate transactionTemplate;
+	private Worker[] workers;
+
+	@PostConstruct
+	public void start() {
+		transactionTemplate = new TransactionTemplate(transactionManager);
+		workers = new Worker[threadCount];
+		for (int i = 0; i < workers.length; i++) {
+			workers[i] = new Worker(i);
+			workers[i].start();
+		}
+	}
+
+	@PreDestroy
+	public void stop() {
+		for (Worker worker : workers) {
+			worker.interrupt();
+		}
+	}
+
+	/**
+	 * Runs the operation on the thread of the schedule and waits for it to be done, running it again if it conflicts
+	 * with a change made elsewhere. If called within a transaction, e.g. by another operation, the operation is run
+	 * right away in that transaction instead, and is not retried, since the transaction can't be.
+	 *
+	 * @param name
+	 *            the name of the operation, under which its conflicts are counted
+	 * @return what the operation returns
+	 * @throws ConcurrentException
+	 *             if the last attempt conflicted
+	 * @throws ResourceException
+	 *             if too many operations are waiting to be run, or the wait is interrupted; in the latter case, the
+	 *             operation may still be run.
+	 * @throws RuntimeException
+	 *             whatever the operation throws
+	 */
+	public <T> T execute(long scheduleId, String name, Operation<T> operation) {
+		if (TransactionSynchronizationManager.isActualTransactionActive()) {
+			return operation.run();
+		}
+		long start = System.currentTimeMillis();
+		for (int attempt = 1;; attempt++) {
+			try {
+				T result = executeOnce(scheduleId, operation);
+				conflictStatistics.done(scheduleId, name, System.currentTimeMillis() - start, false);
+				return result;
+			} catch (RuntimeException e) {
+				if (!isConflict(e)) {
+					conflictStatistics.done(scheduleId, name, System.currentTimeMillis() - start, false);
+					throw e;
+				}
+				conflictStatistics.conflicted(scheduleId, name);
+				if (attempt >= maxAttempts) {
+					conflictStatistics.done(scheduleId, name, System.currentTimeMillis() - start, true);
+					throw new ConcurrentException();
+				}
+			}
+			backOff(attempt);
+		}
+	}
+
+	private <T> T executeOnce(long scheduleId, Operation<T> operation) {
+		Pending<T> pending = new Pending<T>(scheduleId, operation);
+		if (!workers[(int) (Math.abs(scheduleId) % workers.length)].queue.offer(pending)) {
+			throw new ResourceException();
+		}
+		try {
+			pending.done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ResourceException();
+		}
+		if (pending.exception != null) {
+			throw pending.exception;
+		}
+		if (pending.error != null) {
+			throw pending.error;
+		}
+		return pending.result;
+	}
+
+	/*
+	 * Whether the exception is a failure on an optimistic lock, as thrown at commit by the transaction manager, or
+	 * during a flush by hibernate.
+	 */
+	private static boolean isConflict(Throwable e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof OptimisticLockingFailureException || cause instanceof StaleStateException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Waits a random time of up to backoffMillis * 2^(attempt - 1), on the caller's thread so the other operations of
+	 * the schedule are not held up. The randomness keeps the conflicting writers from retrying at the same time again.
+	 */
+	private void backOff(int attempt) {
+		long maxMillis = backoffMillis << Math.min(attempt - 1, 10);
+		long millis = (long) (random.nextDouble() * maxMillis);
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ResourceException();
+		}
+	}
+
+	/*
+	 * Runs the operations on one schedule in one transaction, or each in its own if that fails.
+	 */
+	private void runBatch(final List<Pending<?>> batch) {
+		if (batch.size() > 1) {
+			try {
+				transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+					@Override
+					protected void doInTransactionWithoutResult(TransactionStatus status) {
+						for (Pending<?> pending : batch) {
+							pending.run();
+						}
+					}
+				});
+				for (Pending<?> pending : batch) {
+					pending.done.countDown();
+				}
+				return;
+			} catch (RuntimeException e) {
+				/* rolled back; the operations are run alone below */
+			} catch (Error e) {
+				/* same */
+			}
+		}
+		for (Pending<?> pending : batch) {
+			runAlone(pending);
+		}
+	}
+
+	private void runAlone(final Pending<?> pending) {
+		try {
+			transactionTemplate.execute(new TransactionCallbackWithoutResult() {
+				@Override
+				protected void doInTransactionWithoutResult(TransactionStatus status) {
+					pending.run();
+				}
+			});
+		} catch (RuntimeException e) {
+			pending.exception = e;
+		} catch (Error e) {
+			pending.error = e;
+		}
+		pending.done.countDown();
+	}
+
+	private static class Pending<T> {
+		private final long scheduleId;
+		private final Operation<T> operation;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private T result;
+		private RuntimeException exception;
+		private Error error;
+
+		private Pending(long scheduleId, Operation<T> operation) {
+			this.scheduleId = scheduleId;
+			this.operation = operation;
+		}
+
+		private void run() {
+			result = operation.run();
+		}
+	}
+
+	private class Worker extends Thread {
+		private final BlockingQueue<Pending<?>> queue = new LinkedBlockingQueue<Pending<?>>(queueCapacity);
+
+		private Worker(int index) {
+			super("scheduleWriter-" + index);
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			List<Pending<?>> taken = new ArrayList<Pending<?>>();
+			while (!isInterrupted()) {
+				try {
+					taken.add(queue.take());
+				} catch (InterruptedException e) {
+					return;
+				}
+				queue.drainTo(taken, maxBatchSize - 1);
+				/* a batch per schedule, each in the order the operations were queued */
+				Map<Long, List<Pending<?>>> batches = new LinkedHashMap<Long, List<Pending<?>>>();
+				for (Pending<?> pending : taken) {
+					List<Pending<?>> batch = batches.get(pending.scheduleId);
+					if (batch == null) {
+						batch = new ArrayList<Pending<?>>();
+						batches.put(pending.scheduleId, batch);
+					}
+					batch.add(pending);
+				}
+				taken.clear();
+				for (List<Pending<?>> batch : batches.values()) {
+					runBatch(batch);
+				}
+			}
+		}
+	}
+}
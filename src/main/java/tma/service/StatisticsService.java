@@ -0,0 +1,57 @@
+package tma.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.Resource;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Provides statistics about how the application is performing.
+ */
+@Service
+public class StatisticsService {
+	@Resource(name = "sessionFactory")
+	private SessionFactory sessionFactory;
+	@Autowired
+	private ConflictStatistics conflictStatistics;
+
+	/**
+	 * Returns the hits, misses and puts of the second level cache, in total and for each region (i.e. cached entity or
+	 * collection), and the number of entries in each region. The counts are since the application started.
+	 */
+	public Map<String, Map<String, Long>> getCacheStatistics() {
+		Statistics statistics = sessionFactory.getStatistics();
+		Map<String, Map<String, Long>> result = new LinkedHashMap<String, Map<String, Long>>();
+
+		Map<String, Long> total = new LinkedHashMap<String, Long>();
+		total.put("hits", statistics.getSecondLevelCacheHitCount());
+		total.put("misses", statistics.getSecondLevelCacheMissCount());
+		total.put("puts", statistics.getSecondLevelCachePutCount());
+		result.put("total", total);
+
+		for (String regionName : statistics.getSecondLevelCacheRegionNames()) {
+			SecondLevelCacheStatistics regionStatistics = statistics.getSecondLevelCacheStatistics(regionName);
+			Map<String, Long> region = new LinkedHashMap<String, Long>();
+			region.put("hits", regionStatistics.getHitCount());
+			region.put("misses", regionStatistics.getMissCount());
+			region.put("puts", regionStatistics.getPutCount());
+			region.put("entries", regionStatistics.getElementCountInMemory());
+			result.put(regionName, region);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the conflicts of the changes to schedules, in total and for each operation; see
+	 * {@link ConflictStatistics}.
+	 */
+	public Map<String, Object> getConflictStatistics() {
+		return conflictStatistics.getStatistics();
+	}
+}
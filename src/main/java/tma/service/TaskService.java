@@ -3,20 +3,39 @@ package tma.service;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.annotation.Resource;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import tma.dao.ResultHandler;
 import tma.dao.ScheduleDao;
+import tma.dao.TaskChangeDao;
 import tma.dao.TaskDao;
 import tma.domain.model.Schedule;
 import tma.domain.model.Task;
+import tma.domain.model.TaskChanges;
+import tma.domain.model.TaskSummary;
 import tma.domain.model.Task.SchedulingStatus;
 import tma.domain.model.Task.TaskType;
 import tma.domain.model.Window;
+import tma.domain.service.BusyTimeIndex;
+import tma.domain.service.DayGrid;
+import tma.domain.service.OrderGraph;
+import tma.domain.service.SchedulePlanner;
 import tma.domain.service.TaskGrouper;
 import tma.exceptions.Assertion;
 import tma.exceptions.BadInput;
@@ -33,22 +52,49 @@ import tma.util.Utils;
  * Locking. These methods potentially mutate something within the schedule aggregate (not necessarily the schedule
  * object, but the stuff that logically belongs to it, such as tasks). If calls on the same schedule overlap, this could
  * lead to non-repeatable reads and therefore data corruption. To prevent this, all these methods lock the schedule
- * optimistically by calling {@link ScheduleDao#lock(Object)}.</li>
+ * optimistically by calling {@link ScheduleDao#lock(Object)}. Once the transaction commits, the change of the schedule
+ * is published to {@link ScheduleEventBus}.</li>
  * <li>
  * Invalidation. These methods potentially cause some floating task scheduling time to become invalid (not only the task
  * being modified by the method, but also some other tasks that are dependent on it for example due to ordering). For
  * this reason, these methods call {@link #invalidateBadTasks(long)} to check for such cases and update the scheduling
  * status of the tasks.</li>
  * </ul>
+ * The methods that only read (the ones that start with read or find) run in read-only transactions, unless called
+ * within a transaction that writes. Hibernate neither keeps snapshots of the entities they load nor checks them for
+ * changes, and the session is not flushed, so the objects they return must not be changed with the intent of saving
+ * them.
  */
 @Service
 @Transactional
 public class TaskService {
 
+	/* see invalidateBadTasks(long, TouchedTasks) */
+	private static final int MAX_TOUCHED_RANGES = 16;
+	/* see findDayGrid */
+	private static final int MAX_GRID_DAYS = 62;
+	private static final int MAX_GRID_TASKS_PER_DAY = 100;
+	/* see findChanges */
+	private static final int MAX_CHANGES = 1000;
+	/* see importTasks; same as hibernate.jdbc.batch_size in root-context.xml */
+	private static final int IMPORT_FLUSH_SIZE = 50;
+	private static final Set<SchedulingStatus> NEEDING_SCHEDULING = EnumSet.of(SchedulingStatus.UNSCHEDULED,
+			SchedulingStatus.FAILED, SchedulingStatus.INVALID);
+
 	@Autowired
 	private TaskDao taskDao;
 	@Autowired
 	private ScheduleDao scheduleDao;
+	@Autowired
+	private TaskChangeDao taskChangeDao;
+	@Autowired
+	private BusyTimeCache busyTimeCache;
+	@Autowired
+	private OwnershipCache ownershipCache;
+	@Autowired
+	private ScheduleEventBus scheduleEventBus;
+	@Resource(name = "planningPool")
+	private ForkJoinPool planningPool;
 
 	/**
 	 * Creates a new task. Task windows must be empty and task id must be null. Also, calls
@@ -73,13 +119,105 @@ public class TaskService {
 		task.updateDerivedFields();
 		lockSchedule(task.getScheduleId());
 		long created = taskDao.create(task);
-		invalidateBadTasks(task.getScheduleId());
+		invalidateBadTasks(task.getScheduleId(), new TouchedTasks().add(task));
+		return created;
+	}
+
+	/**
+	 * Creates many tasks in a schedule at once, e.g. when migrating a calendar. The tasks are read from the iterator one
+	 * by one, validated in memory and inserted, so they don't all have to be held in memory. The schedule is locked once,
+	 * and {@link #invalidateBadTasks(long)} is called once at the end rather than for each task; it checks only the
+	 * time the tasks occupy if they are in a few separate ranges, and the whole schedule otherwise. <br/>
+	 * 
+	 * Task id's must be null. The schedule id of a task may be null, in which case it is set to the given schedule.
+	 * Unlike {@link #create(Task)}, floating tasks may have windows (with null id's), but they can't be ordered, since
+	 * the tasks they would follow don't have id's yet; use {@link #moveAfter(long, long)} for that afterwards. Either
+	 * all the tasks are created or none is.
+	 * 
+	 * @throws BadInputException
+	 *             if the schedule does not exist, or any of the tasks is null, has an id, belongs to another schedule, is
+	 *             ordered, or is not valid as defined by {@link Task#validate()}, or any of its windows is not valid.
+	 * @return the number of tasks created.
+	 */
+	public int importTasks(long scheduleId, Iterator<Task> tasks) {
+		lockSchedule(scheduleId);
+		/*
+		 * only the ranges of the tasks are kept, not their ids: they can't be ordered, so they can only be in conflict.
+		 * Past MAX_TOUCHED_RANGES ranges the whole schedule is checked anyway, so no more are kept.
+		 */
+		TouchedTasks touched = new TouchedTasks();
+		List<Task> unflushed = new ArrayList<Task>(IMPORT_FLUSH_SIZE);
+		int created = 0;
+		while (tasks.hasNext()) {
+			Task task = tasks.next();
+			prepareImportedTask(scheduleId, task);
+			taskDao.create(task);
+			if (touched != null) {
+				touched.addRange(task.getStart(), task.getEnd());
+				if (touched.getRanges().size() > MAX_TOUCHED_RANGES) {
+					touched = null;
+				}
+			}
+			unflushed.add(task);
+			created++;
+			if (unflushed.size() == IMPORT_FLUSH_SIZE) {
+				flushImportedTasks(unflushed);
+			}
+		}
+		flushImportedTasks(unflushed);
+		invalidateBadTasks(scheduleId, touched);
 		return created;
 	}
 
+	private void prepareImportedTask(long scheduleId, Task task) {
+		if (task == null) {
+			throw new BadInputException(BadInput.TASK_REQUIRED);
+		}
+		if (task.getId() != null) {
+			throw new BadInputException(BadInput.OBJECT_NULL_ID_REQUIRED);
+		}
+		if (task.getScheduleId() == null) {
+			task.setScheduleId(scheduleId);
+		} else if (task.getScheduleId() != scheduleId) {
+			throw new BadInputException(BadInput.TASK_SCHEDULE_INVALID);
+		}
+		if (task.getPreviousTaskId() != null) {
+			throw new BadInputException(BadInput.TASK_ORDER_INVALID);
+		}
+		List<BadInput> errs = task.validate();
+		if (!errs.isEmpty()) {
+			throw new BadInputException(errs);
+		}
+		/* added one by one, so they are validated, sorted and merged */
+		List<Window> windows = task.getWindows();
+		task.setWindows(new ArrayList<Window>());
+		if (windows != null) {
+			for (Window window : windows) {
+				if (window != null && window.getId() != null) {
+					throw new BadInputException(BadInput.OBJECT_NULL_ID_REQUIRED);
+				}
+				task.addWindow(window);
+			}
+		}
+		task.updateDerivedFields();
+		invalidateUnfittingTask(task);
+	}
+
+	/*
+	 * Writes the batch of imported tasks to the db and evicts them, so the session does not grow with the import. The
+	 * locked schedule stays in the session.
+	 */
+	private void flushImportedTasks(List<Task> tasks) {
+		taskDao.flush();
+		for (Task task : tasks) {
+			taskDao.evict(task);
+		}
+		tasks.clear();
+	}
+
 	/**
 	 * Moves a task to another schedule. If the task is an ordered task, takes care of fixing the order of other tasks
-	 * that come after it. Also, calls {@link #invalidateBadTasks(long)}.
+	 * that come after it. Also, calls {@link #invalidateBadTasks(long)} for both the old and the new schedule.
 	 * 
 	 * @throws BadInputException
 	 *             if task or schedule do not exist
@@ -96,14 +234,19 @@ public class TaskService {
 		if (taskOldPointer != null) {
 			taskOldPointer.setPreviousTaskId(taskOldPointee);
 		}
+		TouchedTasks touched = new TouchedTasks().addInPlace(taskOldPointer).addRange(task.getStart(), task.getEnd());
 		task.setScheduleId(newScheduleId);
+		ownershipCache.invalidateTask(taskId);
 		if (TaskType.FLOATING.equals(task.getTaskType())) {
 			task.setImmediatelyFollowsPrevious(null);
 			task.setPreviousTaskId(null);
 			task.setSchedulingStatus(SchedulingStatus.UNSCHEDULED);
 			task.setStart(null);
+			task.updateDerivedFields();
 		}
-		invalidateBadTasks(scheduleId);
+		invalidateBadTasks(scheduleId, touched);
+		/* a fixed task may conflict with the tasks in the new schedule */
+		invalidateBadTasks(newScheduleId, new TouchedTasks().add(task));
 	}
 
 	/**
@@ -129,6 +272,8 @@ public class TaskService {
 		task.updateDerivedFields();
 		lockSchedule(task.getScheduleId());
 		Task existing = taskDao.read(task.getId());
+		/* merging the update overwrites the existing task */
+		TouchedTasks touched = new TouchedTasks().addRange(existing.getStart(), existing.getEnd());
 
 		/*
 		 * some updates are not allowed or are ignored. The reason for this is that these updates are complex and
@@ -153,7 +298,7 @@ public class TaskService {
 		invalidateUnfittingTask(task);
 		taskDao.update(task);
 		/* updating this task may have caused other tasks to be invalid */
-		invalidateBadTasks(task.getScheduleId());
+		invalidateBadTasks(task.getScheduleId(), touched.add(task));
 	}
 
 	private void invalidateUnfittingTask(Task task) {
@@ -172,123 +317,75 @@ public class TaskService {
 	 * todo 11x: think about if invalid tasks or done tasks should still block the availability or not.
 	 */
 	Long findFirstAvailableSlot(long scheduleId, long start, Long end, long duration) {
-		List<Task> tasks = taskDao.findTasks(scheduleId, start, end, null);
 		if (end != null && !(end - start >= duration)) {
 			return null;
 		}
+		return getBusyTime(scheduleId).findFirstAvailableSlot(start, end, duration);
+	}
 
-		/*
-		 * select all the tasks of which some part is in the time period; if none, then great, return the slot asap
-		 */
-		if (tasks.size() == 0) {
-			return start;
-		}
-
-		/*
-		 * if some tasks found, first consolidate them for where there are overlaps. Then, find the first gap that
-		 * satisfies the req.
-		 */
-		Task previous = null;
-		for (Task task : tasks) {
-			if (previous != null) {
-				Long currentEnd = task.getStart() + task.getDuration();
-				Long previousEnd = previous.getStart() + previous.getDuration();
-				/* slot not possible because overlaps with previous */
-				if (task.getStart() <= previousEnd) {
-					if (currentEnd > previousEnd) {
-						previous.setDuration(currentEnd - previous.getStart());
-					}
-				}
-				/* slot may be possible, task doesn't ovelap with previous */
-				else {
-					if (task.getStart() - previousEnd >= duration) {
-						return previousEnd;
-					}
-					previous = task;
-				}
-			} else {
-				/* case of first task */
-				if (task.getStart() - start >= duration) {
-					return start;
-				}
-				previous = new Task();
-				previous.setStart(task.getStart());
-				previous.setDuration(task.getDuration());
-			}
-		}
+	/**
+	 * Finds the periods of time that are taken by the tasks of the schedule, i.e. the tasks that have a start time.
+	 * Periods that overlap or touch are merged.
+	 * 
+	 * @param start
+	 *            if not null, only the time after this is included
+	 * @param end
+	 *            if not null, only the time before this is included
+	 * @throws BadInputException
+	 *             if schedule does not exist
+	 * @return the periods in ascending order, each as an array of start and end.
+	 */
+	@Transactional(readOnly = true)
+	public List<long[]> findBusyTime(long scheduleId, Long start, Long end) {
+		return getBusyTime(scheduleId).findBusy(start, end);
+	}
 
-		/* could not find a slot in between tasks, maybe will find one after */
-		Long previousEnd = previous.getStart() + previous.getDuration();
-		/* slot possible */
-		if (end == null || (end - previousEnd) >= duration) {
-			return previousEnd;
-		}
-		/* slot not possible */
-		else {
-			return null;
+	/**
+	 * Finds the periods of time between start and end that are not taken by any task of the schedule.
+	 * 
+	 * @throws BadInputException
+	 *             if schedule does not exist or start is not before end
+	 * @return the periods in ascending order, each as an array of start and end.
+	 */
+	@Transactional(readOnly = true)
+	public List<long[]> findFreeTime(long scheduleId, long start, long end) {
+		if (start >= end) {
+			throw new BadInputException(BadInput.GENERIC_MESSAGE);
 		}
+		return getBusyTime(scheduleId).findFree(start, end);
 	}
 
-	private boolean autoSchedule(Task task, long earliestStartTime) {
-		Utils.assertTrue(task != null);
-		Utils.assertTrue(Task.TaskType.FLOATING.equals(task.getTaskType()));
-
-		long scheduleId = task.getScheduleId();
-
-		Long previousId = task.getPreviousTaskId();
-		Task previous = null;
-		/* if previous task exists, must be properly scheduled. */
-		if (previousId != null) {
-			previous = taskDao.read(previousId);
-			/* todo 11x: think if done might also be ok previous task status */
-			if (Task.SchedulingStatus.VALID.equals(previous.getSchedulingStatus())) {
-				earliestStartTime = previous.getStart();
-			/* not valid, cannot schedule this one */	
-			} else { 
-				task.setSchedulingStatus(Task.SchedulingStatus.FAILED);
-				return false;
-			}
-		}
-		Long availableStart = null;
-		List<Window> windows = task.getWindows();
-		for (Window window : windows) {
-			Long windowStart = null;
-			Long windowEnd = window.getEnd();
-			if (window.getStart() == null || window.getStart() < earliestStartTime) {
-				windowStart = earliestStartTime;
-			} else {
-				windowStart = window.getStart();
-			}
-			availableStart = findFirstAvailableSlot(scheduleId, windowStart, windowEnd, task.getDuration());
-			if (availableStart != null) {
-				break;
-			}
+	/*
+	 * The busy time of the whole schedule from the cache, if the schedule hasn't changed since it was cached. The
+	 * version is read from the db, like the ETags of TaskController, rather than from the schedule in the session,
+	 * which may have been read before the last change was committed.
+	 */
+	private BusyTimeIndex getBusyTime(long scheduleId) {
+		Schedule schedule = scheduleDao.read(scheduleId);
+		if (scheduleDao.isLocked(schedule)) {
+			/* changed in this transaction, so the version does not tell */
+			return taskDao.findBusyTime(scheduleId, null, null);
 		}
-		if (windows.size() == 0) {
-			availableStart = findFirstAvailableSlot(scheduleId, earliestStartTime, null, task.getDuration());
+		long version = scheduleDao.readVersion(scheduleId);
+		BusyTimeIndex busyTime = busyTimeCache.get(scheduleId, version);
+		if (busyTime == null) {
+			busyTime = taskDao.findBusyTime(scheduleId, null, null);
+			busyTimeCache.put(scheduleId, version, busyTime);
 		}
-
-		if (availableStart != null) {
-			if (previous != null && previous.getImmediatelyFollowsPrevious()
-					&& availableStart != previous.getStart() + previous.getDuration()) {
-				task.setSchedulingStatus(Task.SchedulingStatus.FAILED);
-			} else {
-				task.setSchedulingStatus(Task.SchedulingStatus.VALID);
-				task.setStart(availableStart);
-			}
-		} else {
-			task.setSchedulingStatus(Task.SchedulingStatus.FAILED);
-		}
-		return Task.SchedulingStatus.VALID.equals(task.getSchedulingStatus());
-
+		return busyTime;
 	}
 
 	/**
 	 * Request the application to schedule (i.e. assign a start time to) the given floating tasks. The start time will
 	 * be such that it is after earliestStartTime and the task fits in its windows. If such a time cannot be found, the
 	 * task status will be updated to failed and the task will be returned in the list of results. If some of the tasks
-	 * on which this method runs are already scheduled, they will first be unscheduled.
+	 * on which this method runs are already scheduled, they will first be unscheduled. <br/>
 	 * 
+	 * The scheduling is done as a batch: the tasks of the schedule are loaded with a single query, all placements are
+	 * planned in memory by {@link SchedulePlanner}, the results are written back with a single batch update, and
+	 * {@link #invalidateBadTasks(long)} is called once at the end.
+	 * 
+	 * @see #autoSchedule(long, List, Long, boolean)
 	 * @throws BadInputException
 	 *             if schedule does not exist or any of the tasks don't exist in the schedule or if any of the tasks are
 	 *             not floating type
@@ -302,21 +399,53 @@ public class TaskService {
 	 * @return the list of taskId's that were attempted to be scheduled but could not be.
 	 */
 	public List<Long> autoSchedule(long scheduleId, List<Long> taskIds, Long earliestStartTime) { 
+		return autoSchedule(scheduleId, taskIds, earliestStartTime, false);
+	}
+
+	/**
+	 * Same as {@link #autoSchedule(long, List, Long)}, but optionally plans the groups of ordered tasks that are
+	 * independent of each other in parallel, as defined by {@link SchedulePlanner#planParallel(List, long, ForkJoinPool)}.
+	 * The result is the same either way; the parallel mode only makes a difference for schedules with many unordered
+	 * floating tasks.
+	 * 
+	 * @param parallel
+	 *            whether to plan independent groups in parallel
+	 */
+	public List<Long> autoSchedule(long scheduleId, List<Long> taskIds, Long earliestStartTime, boolean parallel) {
+		return autoSchedule(scheduleId, taskIds, earliestStartTime, parallel, null);
+	}
+
+	/**
+	 * Same as {@link #autoSchedule(long, List, Long, boolean)}, but reports the progress of the planning to the given
+	 * listener, if not null.
+	 */
+	public List<Long> autoSchedule(long scheduleId, List<Long> taskIds, Long earliestStartTime, boolean parallel,
+			SchedulePlanner.ProgressListener progressListener) {
 		lockSchedule(scheduleId);
 
 		if (earliestStartTime == null) {
 			earliestStartTime = new Date().getTime();
 		}
-		List<Task> tasks = null;
+		/* detached, so the planning below does not reach the db until the batch update */
+		List<Task> scheduleTasks = taskDao.findTasksForPlanning(scheduleId, earliestStartTime);
+		List<Task> tasks = new ArrayList<Task>();
 		/* tasks specified */
 		if (taskIds != null) {
-			tasks = new ArrayList<Task>();
+			Map<Long, Task> tasksById = new HashMap<Long, Task>();
+			for (Task task : scheduleTasks) {
+				tasksById.put(task.getId(), task);
+			}
 			for (Long taskId : taskIds) {
-				Task task = taskDao.read(taskId);
-				if(task.getScheduleId() != scheduleId){
-					throw new BadInputException(BadInput.TASK_SCHEDULE_INVALID);
+				Task task = tasksById.get(taskId);
+				if (task == null) {
+					/* find out why it is not there to report the right error */
+					Task other = taskDao.read(taskId);
+					if (!other.getScheduleId().equals(scheduleId)) {
+						throw new BadInputException(BadInput.TASK_SCHEDULE_INVALID);
+					}
+					throw new BadInputException(BadInput.TASK_TYPE_INVALID);
 				}
-				if(TaskType.FLOATING.equals(task.getTaskType())){
+				if (!TaskType.FLOATING.equals(task.getTaskType())) {
 					throw new BadInputException(BadInput.TASK_TYPE_INVALID);
 				}
 				tasks.add(task);
@@ -324,30 +453,56 @@ public class TaskService {
 		}
 		/* tasks not specified - do all that need scheduling */
 		else {
-			tasks = taskDao.findFloatingTasks(scheduleId, true);
+			for (Task task : scheduleTasks) {
+				if (TaskType.FLOATING.equals(task.getTaskType()) && NEEDING_SCHEDULING.contains(task.getSchedulingStatus())) {
+					tasks.add(task);
+				}
+			}
 		}
 		/* some of they may be presently scheduled, so unschedule. */
-		_unschedule(scheduleId, tasks);
+		TouchedTasks touched = new TouchedTasks();
+		for (Task task : tasks) {
+			touched.addRange(task.getStart(), task.getEnd());
+			task.setStart(null);
+			task.updateDerivedFields();
+			task.setSchedulingStatus(Task.SchedulingStatus.UNSCHEDULED);
+		}
+
+		BusyTimeIndex busyTime = new BusyTimeIndex(scheduleTasks.size());
+		for (Task task : scheduleTasks) {
+			if (task.getStart() != null) {
+				busyTime.add(task.getStart(), task.getStart() + task.getDuration());
+			}
+		}
 
 		/* if a task follows another one, the first one must be scheduled first */
 		List<List<Task>> taskLists = TaskGrouper.buildOrderedTaskGroups(tasks);
-		List<Long> failed = new ArrayList<Long>();
-		for (List<Task> taskList : taskLists) {
-			for (Task task : taskList) {
-				if (!autoSchedule(task, earliestStartTime)) {
-					failed.add(task.getId());
-				}
-			}
+		SchedulePlanner planner = new SchedulePlanner(busyTime, scheduleTasks);
+		planner.setProgressListener(progressListener);
+		List<Long> failed;
+		if (parallel) {
+			failed = planner.planParallel(taskLists, earliestStartTime, planningPool);
+		} else {
+			failed = planner.plan(taskLists, earliestStartTime);
+		}
+
+		taskDao.updateScheduling(tasks);
+		for (Task task : tasks) {
+			touched.add(task);
 		}
+		invalidateBadTasks(scheduleId, touched);
 		return failed;
 	}
 
 	private void _unschedule(long scheduleId, List<Task> tasks){
+		TouchedTasks touched = new TouchedTasks();
 		for(Task task : tasks){
+			touched.addInPlace(task).addRange(task.getStart(), task.getEnd());
 			task.setStart(null);
+			task.updateDerivedFields();
 			task.setSchedulingStatus(Task.SchedulingStatus.UNSCHEDULED);
 		}
-		invalidateBadTasks(scheduleId);
+		invalidateBadTasks(scheduleId, touched);
 	}
 	
 	/**
@@ -374,7 +529,7 @@ public class TaskService {
 			if(task.getScheduleId() != scheduleId){
 				throw new BadInputException(BadInput.TASK_SCHEDULE_INVALID);
 			}
-			
+			tasks.add(task);
 		}
 		_unschedule(scheduleId, tasks);
 	}
@@ -391,16 +546,18 @@ public class TaskService {
 		Task task = taskDao.read(taskId);
 		long scheduleId = task.getScheduleId();
 		lockSchedule(scheduleId);
+		Task taskOldPointer = null;
 		/* if it is ordered, then preceding and follwoing will need to be updated */
 		if (Task.TaskType.FLOATING.equals(task.getTaskType())) {
 			Long taskOldPointee = task.getPreviousTaskId(); // could be null
-			Task taskOldPointer = taskDao.findTaskAfter(task.getId(), scheduleId); // could be null
+			taskOldPointer = taskDao.findTaskAfter(task.getId(), scheduleId); // could be null
 			if (taskOldPointer != null) {
 				taskOldPointer.setPreviousTaskId(taskOldPointee);
 			}
 		}
+		TouchedTasks touched = new TouchedTasks().addInPlace(taskOldPointer).addRange(task.getStart(), task.getEnd());
 		task.changeType();
-		invalidateBadTasks(scheduleId);
+		invalidateBadTasks(scheduleId, touched.add(task));
 	}
 
 	/**
@@ -451,12 +608,15 @@ public class TaskService {
 			taskOldPointer.setPreviousTaskId(taskOldPointee);
 		}
 		taskDao.delete(taskId);
-		invalidateBadTasks(scheduleId);
+		ownershipCache.invalidateTask(taskId);
+		invalidateBadTasks(scheduleId, new TouchedTasks().addInPlace(taskOldPointer).addRange(task.getStart(),
+				task.getEnd()));
 	}
 
 	/**
 	 * Delegates to {@link TaskDao#read(long)}. See that for details. 
 	 */
+	@Transactional(readOnly = true)
 	public Task read(long taskId) {
 		return taskDao.read(taskId);
 	}
@@ -487,6 +647,8 @@ public class TaskService {
 			/* clean up orphans */
 			taskDao.deleteWindow(w.getId());  
 		}
+		/* the new window may have only widened an existing one, which is not a change to the task itself */
+		taskChangeDao.recordChanged(task.getScheduleId(), Collections.singletonList(taskId));
 	}
 
 	/**
@@ -505,7 +667,7 @@ public class TaskService {
 		// removing the window may have caused it not to fit.
 		invalidateUnfittingTask(task);
 		// other tasks may have become invalid
-		invalidateBadTasks(task.getScheduleId());
+		invalidateBadTasks(task.getScheduleId(), new TouchedTasks().addInPlace(task));
 	}
 
 	/**
@@ -546,20 +708,125 @@ public class TaskService {
 		if (afterTaskOldPointer != null) {
 			afterTaskOldPointer.setPreviousTaskId(taskToMove.getId());
 		}
-		invalidateBadTasks(scheduleId);
+		invalidateBadTasks(scheduleId, new TouchedTasks().addInPlace(taskToMove).addInPlace(taskToMoveOldPointer)
+				.addInPlace(afterTaskOldPointer));
 	}
 
 	/**
 	 * Delegates to {@link TaskDao#findTasks(long, Long, Long, String)}. See that for details
 	 */
+	@Transactional(readOnly = true)
 	public List<Task> findTasks(long scheduleId, Long start, Long end, String name) {
 		return taskDao.findTasks(scheduleId, start, end, name);
 	}
 
-	
+	/**
+	 * Delegates to {@link TaskDao#findTasks(long, Long, Long, String, ResultHandler)}. See that for details.
+	 */
+	@Transactional(readOnly = true)
+	public void findTasks(long scheduleId, Long start, Long end, String name, ResultHandler<Task> handler) {
+		taskDao.findTasks(scheduleId, start, end, name, handler);
+	}
+
+	/**
+	 * Delegates to {@link TaskDao#findTasks(long, Long, Long, String, Long, Long, Integer)}. See that for details.
+	 * 
+	 * @throws BadInputException
+	 *             if limit is not positive
+	 */
+	@Transactional(readOnly = true)
+	public List<Task> findTasks(long scheduleId, Long start, Long end, String name, Long afterStart, Long afterId,
+			Integer limit) {
+		if (limit != null && limit < 1) {
+			throw new BadInputException(BadInput.GENERIC_MESSAGE);
+		}
+		return taskDao.findTasks(scheduleId, start, end, name, afterStart, afterId, limit);
+	}
+
+	/**
+	 * Delegates to {@link TaskDao#findTaskSummaries(long, Long, Long, String)}. See that for details.
+	 */
+	@Transactional(readOnly = true)
+	public List<TaskSummary> findTaskSummaries(long scheduleId, Long start, Long end, String name) {
+		return taskDao.findTaskSummaries(scheduleId, start, end, name);
+	}
+
+	/**
+	 * Finds what changed in the tasks of a schedule after the given point, so a client that already has the tasks can
+	 * bring them up to date without reading them all again. The changes are recorded by {@link TaskChangeDao}; a task
+	 * that changed several times is returned once, as it is now. At most {@value #MAX_CHANGES} changes are returned at
+	 * a time; if there are more, {@link TaskChanges#isMore()} is true and the rest can be had by asking again from the
+	 * returned sequence.
+	 * 
+	 * @param since
+	 *            the sequence returned by the previous call; 0 to get all the tasks of the schedule
+	 * @throws BadInputException
+	 *             if schedule does not exist
+	 */
+	@Transactional(readOnly = true)
+	public TaskChanges findChanges(long scheduleId, long since) {
+		scheduleDao.read(scheduleId);
+		List<Object[]> changes = taskChangeDao.findChanges(scheduleId, since, MAX_CHANGES + 1);
+		boolean more = changes.size() > MAX_CHANGES;
+		if (more) {
+			changes = changes.subList(0, MAX_CHANGES);
+		}
+		long sequence = since;
+		List<Long> changedTaskIds = new ArrayList<Long>();
+		List<Long> deletedTaskIds = new ArrayList<Long>();
+		for (Object[] change : changes) {
+			sequence = (Long) change[0];
+			if ((Boolean) change[2]) {
+				deletedTaskIds.add((Long) change[1]);
+			} else {
+				changedTaskIds.add((Long) change[1]);
+			}
+		}
+		return new TaskChanges(sequence, more, taskDao.read(changedTaskIds), deletedTaskIds);
+	}
+
+	/**
+	 * Groups the tasks of the schedule by the days they fall on, e.g. for a month view. See {@link DayGrid}. The tasks
+	 * are read as summaries and added to the grid as they are streamed from the db.
+	 * 
+	 * @param start
+	 *            any time in the first day
+	 * @param dayCount
+	 *            the number of days, at most {@value #MAX_GRID_DAYS}
+	 * @param timeZoneId
+	 *            the time zone in which the days start at midnight, e.g. "America/New_York"
+	 * @param maxTasksPerDay
+	 *            the number of tasks to return for each day, at most {@value #MAX_GRID_TASKS_PER_DAY}; the rest are
+	 *            only counted
+	 * @throws BadInputException
+	 *             if dayCount or maxTasksPerDay is out of range or the time zone is not known
+	 */
+	@Transactional(readOnly = true)
+	public List<DayGrid.Day> findDayGrid(long scheduleId, long start, int dayCount, String timeZoneId,
+			int maxTasksPerDay) {
+		if (dayCount < 1 || dayCount > MAX_GRID_DAYS || maxTasksPerDay < 1
+				|| maxTasksPerDay > MAX_GRID_TASKS_PER_DAY || timeZoneId == null) {
+			throw new BadInputException(BadInput.GENERIC_MESSAGE);
+		}
+		TimeZone timeZone = TimeZone.getTimeZone(timeZoneId);
+		/* unknown ids are silently taken as GMT */
+		if (!timeZone.getID().equals(timeZoneId)) {
+			throw new BadInputException(BadInput.GENERIC_MESSAGE);
+		}
+		final DayGrid grid = new DayGrid(start, dayCount, timeZone, maxTasksPerDay);
+		taskDao.findTaskSummaries(scheduleId, grid.getStart(), grid.getEnd(), null,
+				new ResultHandler<TaskSummary>() {
+					public void handle(TaskSummary task) {
+						grid.add(task);
+					}
+				});
+		return grid.getDays();
+	}
+
 	/**
 	 * Delegates to {@link TaskDao#findConflictingTasks(long, Long, Long, boolean)}. See that for details.  
 	 */
+	@Transactional(readOnly = true)
 	public List<Object[]> findConflictingTasks(long scheduleId, Long start, Long end, boolean validOnly) {
 		return taskDao.findConflictingTasks(scheduleId, start, end, validOnly);
 	}
@@ -568,6 +835,7 @@ public class TaskService {
 	 * Finds flotings tasks as defined by {@link TaskDao#findFloatingTasks(long, boolean)} and groups them as 
 	 * defined by {@link TaskGrouper#buildOrderedTaskGroups(Collection)}. 
 	 */
+	@Transactional(readOnly = true)
 	public List<List<Task>> findFloatingTasksOrdered(long scheduleId) {
 		List<Task> tasks = taskDao.findFloatingTasks(scheduleId, false);
 		return TaskGrouper.buildOrderedTaskGroups(tasks);
@@ -576,47 +844,90 @@ public class TaskService {
 	/**
 	 * Finds floating tasks that are conflicting as defined by
 	 * {@link TaskDao#findConflictingTasks(long, Long, Long, boolean)} and tasks that are badly ordered as defined by
-	 * {@link TaskDao#findBadlyOrderedTasks(long)} and updates their status to invalid. Since the some more tasks can 
-	 * become invalid as a result of the first call, keeps calling itself recursively until the call returns 0. 
+	 * {@link OrderGraph} and updates their status to invalid. Since invalidating a task can cause the tasks ordered
+	 * after it to become badly ordered as well, the invalidation is spread down the order chains of the whole schedule.
 	 * 
 	 * @throws BadInputException
 	 *             if schedule with this id does not exist.
 	 * @return the number of tasks that were invalidated.
 	 */
 	public int invalidateBadTasks(long scheduleId) {
-		lockSchedule(scheduleId);
-		int count = 0;
-		count += invalidateConflictingTasks(scheduleId);
-		count += invalidateBadlyOrderedTasks(scheduleId, 0);
-		return count;
+		return invalidateBadTasks(scheduleId, null);
 	}
 
-	private int invalidateConflictingTasks(long scheduleId) {
-		int count = 0;
-		Collection<Object[]> taskPairIds = taskDao.findConflictingTasks(scheduleId, null, null, true);
-		for (Object[] taskPairId : taskPairIds) {
-			count += invalidateTask(((BigInteger) taskPairId[0]).longValue());
-			count += invalidateTask(((BigInteger) taskPairId[1]).longValue());
+	/*
+	 * Same as invalidateBadTasks(long), but only the neighborhood of what was touched is checked: conflicts only with
+	 * the tasks that overlap the touched ranges, and order only for the touched tasks and the ones downstream of them.
+	 * If touched is null, the whole schedule is checked.
+	 */
+	private int invalidateBadTasks(long scheduleId, TouchedTasks touched) {
+		lockSchedule(scheduleId);
+		Set<Long> conflicting;
+		/* with many separate ranges, one pass over the schedule is cheaper than a query per range */
+		if (touched == null || touched.getRanges().size() > MAX_TOUCHED_RANGES) {
+			conflicting = findConflictingTaskIds(scheduleId, null);
+		} else {
+			conflicting = findConflictingTaskIds(scheduleId, touched.getRanges());
+		}
+		int invalidated = invalidateTasks(scheduleId, conflicting);
+		List<Long> badlyOrdered;
+		if (touched == null) {
+			badlyOrdered = taskDao.findOrderGraph(scheduleId).findBadlyOrdered();
+		} else {
+			/* the tasks invalidated due to conflicts have changed too */
+			Set<Long> seeds = new HashSet<Long>(touched.getTaskIds());
+			seeds.addAll(conflicting);
+			badlyOrdered = findBadlyOrdered(scheduleId, seeds);
 		}
-		return count;
+		return invalidated + invalidateTasks(scheduleId, badlyOrdered);
+	}
 
+	/*
+	 * Finds the tasks that are badly ordered because of a change to the given tasks, reading only the given tasks, the
+	 * ones they follow, and the followers of the tasks that are found badly ordered (see OrderGraph), so the cost grows
+	 * with the chains that are actually affected rather than with the schedule.
+	 */
+	private List<Long> findBadlyOrdered(long scheduleId, Collection<Long> changedTaskIds) {
+		List<Long> result = new ArrayList<Long>();
+		if (changedTaskIds.isEmpty()) {
+			return result;
+		}
+		OrderGraph orderGraph = new OrderGraph();
+		taskDao.addTasksToOrderGraph(orderGraph, scheduleId, changedTaskIds);
+		List<Long> found = orderGraph.findBadlyOrdered(changedTaskIds);
+		result.addAll(found);
+		/* the changed tasks and the ones found since may have followers that aren't in the graph yet */
+		List<Long> toExpand = new ArrayList<Long>(changedTaskIds);
+		toExpand.addAll(found);
+		while (!toExpand.isEmpty()) {
+			List<Long> followers = taskDao.addFollowersToOrderGraph(orderGraph, scheduleId, toExpand);
+			found = orderGraph.findBadlyOrdered(followers);
+			result.addAll(found);
+			toExpand = found;
+		}
+		return result;
 	}
-	
-	private int invalidateBadlyOrderedTasks(long scheduleId, int startingInvalidCount) {
-		taskDao.findBadlyOrderedTasks(scheduleId);
-		Collection<BigInteger> taskIds = taskDao.findBadlyOrderedTasks(startingInvalidCount);
-		int singleRunCount = 0;
-		for (BigInteger taskId : taskIds) {
-			singleRunCount += invalidateTask(taskId.longValue());
+
+	/*
+	 * Finds the valid tasks that are in conflict. If ranges is null, looks for conflicts in the whole schedule.
+	 */
+	private Set<Long> findConflictingTaskIds(long scheduleId, BusyTimeIndex ranges) {
+		Collection<Object[]> taskPairIds;
+		if (ranges == null) {
+			taskPairIds = taskDao.findConflictingTasks(scheduleId, null, null, true);
+		} else {
+			taskPairIds = new ArrayList<Object[]>();
+			for (int i = 0; i < ranges.size(); i++) {
+				taskPairIds.addAll(taskDao.findConflictingTasksNear(scheduleId, ranges.getStart(i), ranges.getEnd(i),
+						true));
+			}
 		}
-		startingInvalidCount += singleRunCount;
-		if (singleRunCount > 0) {
-			/*
-			 * called recursively because invalidating one ordered task can cause the ivalidations of others
-			 */
-			invalidateBadlyOrderedTasks(scheduleId, startingInvalidCount);
+		Set<Long> taskIds = new HashSet<Long>();
+		for (Object[] taskPairId : taskPairIds) {
+			taskIds.add(((BigInteger) taskPairId[0]).longValue());
+			taskIds.add(((BigInteger) taskPairId[1]).longValue());
 		}
-		return startingInvalidCount;
+		return taskIds;
 	}
 
 	/**
@@ -624,36 +935,37 @@ public class TaskService {
 	 * invalid.
 	 * 
 	 * @param scheduleId
-	 * @return
+	 * @return the number of tasks that were invalidated.
 	 */
 	public int invalidatePastTasks(long scheduleId) {
 		lockSchedule(scheduleId);
-		int count = 0;
 		Collection<BigInteger> taskIds = taskDao.findTasksScheduledForPast(scheduleId, new Date().getTime());
+		List<Long> ids = new ArrayList<Long>(taskIds.size());
 		for (BigInteger taskId : taskIds) {
-			count += invalidateTask(taskId.longValue());
+			ids.add(taskId.longValue());
 		}
-		return count;
+		return invalidateTasks(scheduleId, ids);
 	}
-	
-	
-	private int invalidateTask(long taskId) {
-		Task task = read(taskId);
-		if (Task.SchedulingStatus.VALID.equals(task.getSchedulingStatus())) {
-			task.setSchedulingStatus(Task.SchedulingStatus.INVALID);
-			return 1;
-		} else {
-			return 0;
-		}
 
+	/*
+	 * Sets the status of the given tasks of the schedule that are valid to invalid, with bulk updates rather than one
+	 * update per task. Returns the number of tasks that were invalidated.
+	 */
+	private int invalidateTasks(long scheduleId, Collection<Long> taskIds) {
+		return taskDao.updateSchedulingStatus(scheduleId, taskIds, SchedulingStatus.VALID, SchedulingStatus.INVALID);
 	}
 
 	/**
+	 * Also publishes the change of the schedule to {@link ScheduleEventBus}, once per transaction.
+	 * 
 	 * @throws BadInputException
 	 *             if schedule does not exist.
 	 */
 	private void lockSchedule(long scheduleId) {
 		Schedule schedule = scheduleDao.read(scheduleId);
+		if (!scheduleDao.isLocked(schedule)) {
+			scheduleEventBus.publish(scheduleId);
+		}
 		scheduleDao.lock(schedule);
 	}
 
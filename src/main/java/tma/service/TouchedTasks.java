@@ -0,0 +1,57 @@
+package tma.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tma.domain.model.Task;
+import tma.domain.service.BusyTimeIndex;
+
+/**
+ * Collects what a mutation in {@link TaskService} has touched: the tasks that changed and the time ranges they occupied
+ * before and after the change. This is what needs to be checked for conflicts and bad order afterwards, so the cost of
+ * the check depends on the size of the change rather than the size of the schedule.
+ */
+class TouchedTasks {
+	private final List<Long> taskIds = new ArrayList<Long>();
+	/* overlapping and adjacent ranges are merged */
+	private final BusyTimeIndex ranges = new BusyTimeIndex();
+
+	/**
+	 * Adds a task that may have moved in time, and the range it occupies now, if any. Null tasks are ignored.
+	 */
+	TouchedTasks add(Task task) {
+		if (task != null) {
+			taskIds.add(task.getId());
+			addRange(task.getStart(), task.getEnd());
+		}
+		return this;
+	}
+
+	/**
+	 * Adds a task whose time did not change, e.g. one whose order or status changed. Null tasks are ignored.
+	 */
+	TouchedTasks addInPlace(Task task) {
+		if (task != null) {
+			taskIds.add(task.getId());
+		}
+		return this;
+	}
+
+	/**
+	 * Adds a range that some touched task occupied before the change. Ignored if start or end is null.
+	 */
+	TouchedTasks addRange(Long start, Long end) {
+		if (start != null && end != null && start < end) {
+			ranges.add(start, end);
+		}
+		return this;
+	}
+
+	List<Long> getTaskIds() {
+		return taskIds;
+	}
+
+	BusyTimeIndex getRanges() {
+		return ranges;
+	}
+}
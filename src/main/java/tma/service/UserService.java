@@ -1,5 +1,6 @@
 package tma.service;
 
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
@@ -10,6 +11,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import tma.dao.ScheduleDao;
+import tma.dao.TaskChangeDao;
 import tma.dao.TaskDao;
 import tma.dao.UserDao;
 import tma.domain.model.Schedule;
@@ -33,7 +35,11 @@ public class UserService {
 	@Autowired
 	private ScheduleDao scheduleDao;
 	@Autowired
+	private TaskChangeDao taskChangeDao;
+	@Autowired
 	private UserDao userDao;
+	@Autowired
+	private OwnershipCache ownershipCache;
 
 	/**
 	 * Creates a new user. The id of the passed in user must be null, and it will be assigned upon creation.
@@ -118,6 +124,7 @@ public class UserService {
 	/**
 	 * delegates to {@link UserDao#read(long)}. See that for details.
 	 */
+	@Transactional(readOnly = true)
 	public User read(long userId) {
 		User user = userDao.read(userId);
 		return user;
@@ -169,6 +176,7 @@ public class UserService {
 		}
 		User user = userDao.read(userId);
 		user.addSchedule(schedule);
+		ownershipCache.invalidateUser(userId);
 	}
 
 	/**
@@ -180,11 +188,13 @@ public class UserService {
 	public void removeSchedule(long userId, long scheduleId) {
 		User user = userDao.read(userId);
 		user.removeSchedule(scheduleId);
+		ownershipCache.invalidateUser(userId);
 		Collection<Task> tasks = taskDao.findTasks(scheduleId, null, null, null);
 		for (Task task : tasks) {
 			taskDao.delete(task.getId());
 		}
 		userDao.deleteSchedule(scheduleId);
+		taskChangeDao.forgetSchedule(scheduleId);
 	}
 
 	/**
@@ -207,22 +217,60 @@ public class UserService {
 	/**
 	 * Delegates to {@link UserDao#findUser(String)}. See that for details.  
 	 */
+	@Transactional(readOnly = true)
 	public User findUser(String username) {
 		return userDao.findUser(username);
 	}
 
 	/**
-	 * Delegates to {@link UserDao#hasTask(long, long)}. See that for details. 
+	 * Checks if the task belongs to one of the schedules of the user. Usually answered from {@link OwnershipCache}.
+	 * 
+	 * @return false if the user or the task doesn't exist.
 	 */
+	@Transactional(readOnly = true)
 	public boolean hasTask(long userId, long taskId) {
-		return userDao.hasTask(userId, taskId);
+		Long scheduleId = findScheduleId(taskId);
+		return scheduleId != null && hasSchedule(userId, scheduleId);
+	}
+
+	/**
+	 * Finds the schedule of the task. Usually answered from {@link OwnershipCache}.
+	 * 
+	 * @return null if the task doesn't exist.
+	 */
+	@Transactional(readOnly = true)
+	public Long findScheduleId(long taskId) {
+		Long scheduleId = ownershipCache.getScheduleId(taskId);
+		if (scheduleId == null) {
+			long generation = ownershipCache.getGeneration();
+			scheduleId = taskDao.findScheduleId(taskId);
+			if (scheduleId != null) {
+				ownershipCache.putScheduleId(taskId, scheduleId, generation);
+			}
+		}
+		return scheduleId;
 	}
 
 	/**
-	 * Delegates to {@link UserDao#hasSchedule(long, long)}. See that for details. 
+	 * Checks if the schedule belongs to the user. Usually answered from {@link OwnershipCache}.
+	 * 
+	 * @return false if the user or the schedule doesn't exist.
 	 */
+	@Transactional(readOnly = true)
 	public boolean hasSchedule(long userId, long scheduleId) {
-		return userDao.hasSchedule(userId, scheduleId);
+		Boolean result = ownershipCache.hasSchedule(userId, scheduleId);
+		if (result == null) {
+			long generation = ownershipCache.getGeneration();
+			List<BigInteger> ids = userDao.findScheduleIds(userId);
+			long[] scheduleIds = new long[ids.size()];
+			result = false;
+			for (int i = 0; i < scheduleIds.length; i++) {
+				scheduleIds[i] = ids.get(i).longValue();
+				result |= scheduleIds[i] == scheduleId;
+			}
+			ownershipCache.putSchedules(userId, scheduleIds, generation);
+		}
+		return result;
 	}
 
 }
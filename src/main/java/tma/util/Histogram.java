@@ -0,0 +1,84 @@
+package tma.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts values, e.g. durations in milliseconds, in buckets whose upper bounds grow roughly exponentially (1, 2, 5, 10,
+ * 20, 50, ...), so that it takes little memory however many values are added, while still showing both the usual
+ * values and the outliers. Values are added without locking, so it can be shared by threads.
+ */
+public class Histogram {
+	/* the upper bound of each bucket, inclusive; the last bucket has no upper bound */
+	private static final long[] BOUNDS = { 0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 20000,
+			50000 };
+
+	private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+
+	public void add(long value) {
+		int bucket = 0;
+		while (bucket < BOUNDS.length && value > BOUNDS[bucket]) {
+			bucket++;
+		}
+		counts.incrementAndGet(bucket);
+	}
+
+	/**
+	 * @return the number of values added
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the upper bound of the bucket that the given fraction (between 0 and 1) of the values are in or below,
+	 *         e.g. 0.99 for the 99th percentile; 0 if there are no values, and -1 if it is in the last bucket, which has
+	 *         no upper bound.
+	 */
+	public long getPercentile(double fraction) {
+		long[] snapshot = snapshot();
+		long count = 0;
+		for (long bucketCount : snapshot) {
+			count += bucketCount;
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(fraction * count);
+		long seen = 0;
+		for (int i = 0; i < BOUNDS.length; i++) {
+			seen += snapshot[i];
+			if (seen >= rank && seen > 0) {
+				return BOUNDS[i];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the count of each non empty bucket, in order, keyed by its range, e.g. "<=20" or ">50000".
+	 */
+	public Map<String, Long> getBuckets() {
+		long[] snapshot = snapshot();
+		Map<String, Long> buckets = new LinkedHashMap<String, Long>();
+		for (int i = 0; i < snapshot.length; i++) {
+			if (snapshot[i] > 0) {
+				buckets.put(i < BOUNDS.length ? "<=" + BOUNDS[i] : ">" + BOUNDS[BOUNDS.length - 1], snapshot[i]);
+			}
+		}
+		return buckets;
+	}
+
+	private long[] snapshot() {
+		long[] snapshot = new long[counts.length()];
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+		}
+		return snapshot;
+	}
+}
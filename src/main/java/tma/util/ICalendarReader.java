@@ -0,0 +1,270 @@
+package tma.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import tma.domain.model.Task;
+import tma.domain.model.Task.TaskType;
+import tma.exceptions.BadInput;
+import tma.exceptions.BadInputException;
+import tma.exceptions.ResourceException;
+
+/**
+ * Reads the events of an iCalendar (RFC 5545) calendar as tasks, one event at a time, so a calendar of any size can be
+ * imported without holding it in memory. <br/>
+ * 
+ * Each VEVENT becomes a fixed task with the event's start, duration and summary. The end is taken from DTEND or
+ * DURATION; all-day events, i.e. ones whose DTSTART is a date, become all-day tasks, and last a day if they have
+ * neither. Times with a TZID are converted from that time zone, and times
+ * without a time zone ("floating" times) and dates are taken as UTC. Events that can't be tasks, i.e. that have no start
+ * or don't take any time, are skipped. Recurrence rules are ignored, so only the first occurrence of a recurring event
+ * is read. Not thread safe.
+ */
+public class ICalendarReader implements Iterator<Task> {
+	private static final Pattern DURATION = Pattern
+			.compile("([+-])?P(?:(\\d+)W)?(?:(\\d+)D)?(?:T(?:(\\d+)H)?(?:(\\d+)M)?(?:(\\d+)S)?)?");
+
+	private final BufferedReader in;
+	/* the line after the current one, read to know if it continues the current one */
+	private String lookahead;
+	private Task next;
+	/* the components that are open at the current line, innermost last */
+	private final LinkedList<String> components = new LinkedList<String>();
+	private final SimpleDateFormat dateFormat = utcFormat("yyyyMMdd");
+	private final SimpleDateFormat dateTimeFormat = utcFormat("yyyyMMdd'T'HHmmss");
+
+	public ICalendarReader(Reader in) {
+		this.in = new BufferedReader(in);
+	}
+
+	/**
+	 * @throws BadInputException
+	 *             with {@link BadInput#ICALENDAR_INVALID} if the calendar is malformed.
+	 * @throws ResourceException
+	 *             if reading fails.
+	 */
+	public boolean hasNext() {
+		if (next == null) {
+			try {
+				next = readEvent();
+			} catch (IOException e) {
+				throw new ResourceException();
+			}
+		}
+		return next != null;
+	}
+
+	/**
+	 * @see #hasNext()
+	 */
+	public Task next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Task result = next;
+		next = null;
+		return result;
+	}
+
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/*
+	 * Returns the next event that can be a task, or null at the end of the calendar.
+	 */
+	private Task readEvent() throws IOException {
+		Long start = null;
+		Long end = null;
+		Long duration = null;
+		boolean allDay = false;
+		String summary = null;
+
+		String line;
+		while ((line = readLine()) != null) {
+			if (line.length() == 0) {
+				continue;
+			}
+			ContentLine content = new ContentLine(line);
+			if ("BEGIN".equals(content.name)) {
+				components.add(content.value.toUpperCase());
+				if ("VEVENT".equals(components.getLast())) {
+					start = null;
+					end = null;
+					duration = null;
+					allDay = false;
+					summary = null;
+				}
+			} else if ("END".equals(content.name)) {
+				if (components.isEmpty() || !components.getLast().equals(content.value.toUpperCase())) {
+					throw new BadInputException(BadInput.ICALENDAR_INVALID);
+				}
+				String ended = components.removeLast();
+				if ("VEVENT".equals(ended)) {
+					if (duration == null) {
+						if (end != null && start != null) {
+							duration = end - start;
+						} else if (allDay) {
+							duration = Utils.DAY;
+						}
+					}
+					if (start != null && duration != null && duration > 0) {
+						Task task = new Task(TaskType.FIXED);
+						task.setStart(start);
+						task.setDuration(duration);
+						task.setName(summary);
+						task.setAllDay(allDay);
+						return task;
+					}
+				}
+			} else if (!components.isEmpty() && "VEVENT".equals(components.getLast())) {
+				/* only the properties of the event itself, not of the alarms in it */
+				if ("DTSTART".equals(content.name)) {
+					start = parseTime(content);
+					allDay = content.isDate();
+				} else if ("DTEND".equals(content.name)) {
+					end = parseTime(content);
+				} else if ("DURATION".equals(content.name)) {
+					duration = parseDuration(content.value);
+				} else if ("SUMMARY".equals(content.name)) {
+					summary = unescape(content.value);
+				}
+			}
+		}
+		if (!components.isEmpty()) {
+			throw new BadInputException(BadInput.ICALENDAR_INVALID);
+		}
+		return null;
+	}
+
+	/*
+	 * Reads a logical line, i.e. a line together with the lines that continue it, which start with a space or a tab.
+	 */
+	private String readLine() throws IOException {
+		String line = lookahead != null ? lookahead : in.readLine();
+		lookahead = null;
+		if (line == null) {
+			return null;
+		}
+		StringBuilder unfolded = null;
+		String following;
+		while ((following = in.readLine()) != null && following.length() > 0
+				&& (following.charAt(0) == ' ' || following.charAt(0) == '\t')) {
+			if (unfolded == null) {
+				unfolded = new StringBuilder(line);
+			}
+			unfolded.append(following, 1, following.length());
+		}
+		lookahead = following;
+		return unfolded == null ? line : unfolded.toString();
+	}
+
+	private long parseTime(ContentLine content) {
+		String value = content.value;
+		try {
+			if (content.isDate()) {
+				return dateFormat.parse(value).getTime();
+			}
+			if (value.endsWith("Z")) {
+				dateTimeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+				return dateTimeFormat.parse(value.substring(0, value.length() - 1)).getTime();
+			}
+			/* unknown time zones are taken as UTC */
+			dateTimeFormat.setTimeZone(TimeZone.getTimeZone(content.tzid != null ? content.tzid : "UTC"));
+			return dateTimeFormat.parse(value).getTime();
+		} catch (ParseException e) {
+			throw new BadInputException(BadInput.ICALENDAR_INVALID);
+		}
+	}
+
+	static long parseDuration(String value) {
+		Matcher matcher = DURATION.matcher(value);
+		if (!matcher.matches()) {
+			throw new BadInputException(BadInput.ICALENDAR_INVALID);
+		}
+		long seconds = group(matcher, 2) * 7 * 24 * 3600 + group(matcher, 3) * 24 * 3600 + group(matcher, 4) * 3600
+				+ group(matcher, 5) * 60 + group(matcher, 6);
+		return "-".equals(matcher.group(1)) ? -seconds * 1000 : seconds * 1000;
+	}
+
+	private static long group(Matcher matcher, int group) {
+		return matcher.group(group) == null ? 0 : Long.parseLong(matcher.group(group));
+	}
+
+	static String unescape(String text) {
+		StringBuilder result = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c == '\\' && i + 1 < text.length()) {
+				char escaped = text.charAt(++i);
+				result.append(escaped == 'n' || escaped == 'N' ? '\n' : escaped);
+			} else {
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	private static SimpleDateFormat utcFormat(String pattern) {
+		SimpleDateFormat format = new SimpleDateFormat(pattern);
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		format.setLenient(false);
+		return format;
+	}
+
+	/**
+	 * A property of the form NAME;PARAM=VALUE;...:VALUE. Only the parameters that are needed are kept.
+	 */
+	private static class ContentLine {
+		private final String name;
+		private final String value;
+		private String valueType;
+		private String tzid;
+
+		private ContentLine(String line) {
+			/* the value starts at the first colon that is not in a quoted parameter value */
+			int colon = -1;
+			boolean quoted = false;
+			for (int i = 0; i < line.length() && colon < 0; i++) {
+				char c = line.charAt(i);
+				if (c == '"') {
+					quoted = !quoted;
+				} else if (c == ':' && !quoted) {
+					colon = i;
+				}
+			}
+			if (colon < 0) {
+				throw new BadInputException(BadInput.ICALENDAR_INVALID);
+			}
+			value = line.substring(colon + 1);
+			String[] parts = line.substring(0, colon).split(";");
+			name = parts[0].trim().toUpperCase();
+			for (int i = 1; i < parts.length; i++) {
+				int equals = parts[i].indexOf('=');
+				if (equals < 0) {
+					continue;
+				}
+				String paramName = parts[i].substring(0, equals).trim().toUpperCase();
+				String paramValue = parts[i].substring(equals + 1).replace("\"", "");
+				if ("VALUE".equals(paramName)) {
+					valueType = paramValue.toUpperCase();
+				} else if ("TZID".equals(paramName)) {
+					tzid = paramValue;
+				}
+			}
+		}
+
+		private boolean isDate() {
+			return "DATE".equals(valueType) || (valueType == null && value.length() == 8);
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package tma.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import tma.domain.model.Task;
+
+/**
+ * Writes tasks as an iCalendar (RFC 5545) calendar of events, one task at a time, so a schedule of any size can be
+ * exported without holding it in memory. Call {@link #start()}, then {@link #write(Task)} for each task, then
+ * {@link #end()}. <br/>
+ * 
+ * Only tasks that have a start time, i.e. fixed tasks and scheduled floating tasks, are written; each becomes a VEVENT
+ * with its times in UTC. All-day tasks are written as all-day events, whose DTSTART and DTEND are dates (in UTC as
+ * well), covering the days that the task spans. Not thread safe.
+ */
+public class ICalendarWriter {
+	private static final String CRLF = "\r\n";
+	/* lines longer than this many octets must be folded */
+	private static final int MAX_LINE_OCTETS = 75;
+
+	private final Writer out;
+	private final SimpleDateFormat dateTimeFormat;
+	private final SimpleDateFormat dateFormat;
+	private final String stamp;
+
+	/**
+	 * @param out
+	 *            where the calendar is written; should be buffered and encode with UTF-8.
+	 */
+	public ICalendarWriter(Writer out) {
+		this.out = out;
+		dateTimeFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss'Z'");
+		dateTimeFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		dateFormat = new SimpleDateFormat("yyyyMMdd");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		stamp = dateTimeFormat.format(new Date());
+	}
+
+	public void start() throws IOException {
+		writeLine("BEGIN:VCALENDAR");
+		writeLine("VERSION:2.0");
+		writeLine("PRODID:-//tma//tma//EN");
+		writeLine("CALSCALE:GREGORIAN");
+	}
+
+	/**
+	 * Writes the task as an event. Does nothing if the task has no start time.
+	 */
+	public void write(Task task) throws IOException {
+		if (task.getStart() == null || task.getDuration() == null) {
+			return;
+		}
+		writeLine("BEGIN:VEVENT");
+		writeLine("UID:" + task.getId() + "@tma");
+		writeLine("DTSTAMP:" + stamp);
+		if (task.isAllDay()) {
+			/* from the start of the first day to the end of the last one, which DTEND excludes */
+			long firstDay = floorDay(task.getStart());
+			long lastDay = Math.max(floorDay(task.getStart() + task.getDuration() - 1), firstDay);
+			long endDay = lastDay + Utils.DAY;
+			writeLine("DTSTART;VALUE=DATE:" + dateFormat.format(new Date(firstDay)));
+			writeLine("DTEND;VALUE=DATE:" + dateFormat.format(new Date(endDay)));
+		} else {
+			writeLine("DTSTART:" + dateTimeFormat.format(new Date(task.getStart())));
+			writeLine("DTEND:" + dateTimeFormat.format(new Date(task.getStart() + task.getDuration())));
+		}
+		if (task.getName() != null) {
+			writeLine("SUMMARY:" + escape(task.getName()));
+		}
+		writeLine("END:VEVENT");
+	}
+
+	public void end() throws IOException {
+		writeLine("END:VCALENDAR");
+		out.flush();
+	}
+
+	/*
+	 * The start of the UTC day of the time.
+	 */
+	private static long floorDay(long time) {
+		return time - ((time % Utils.DAY) + Utils.DAY) % Utils.DAY;
+	}
+
+	static String escape(String text) {
+		StringBuilder result = new StringBuilder(text.length());
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '\\':
+			case ';':
+			case ',':
+				result.append('\\').append(c);
+				break;
+			case '\n':
+				result.append("\\n");
+				break;
+			case '\r':
+				break;
+			default:
+				result.append(c);
+			}
+		}
+		return result.toString();
+	}
+
+	/*
+	 * Folds the line so no line is longer than 75 octets in UTF-8, without splitting a character. The continuation
+	 * lines start with a space, which counts towards their length.
+	 */
+	private void writeLine(String line) throws IOException {
+		int octets = 0;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			int charOctets;
+			if (Character.isHighSurrogate(c)) {
+				/* written together with the low surrogate that follows */
+				charOctets = 4;
+			} else if (Character.isLowSurrogate(c)) {
+				charOctets = 0;
+			} else if (c < 0x80) {
+				charOctets = 1;
+			} else if (c < 0x800) {
+				charOctets = 2;
+			} else {
+				charOctets = 3;
+			}
+			if (octets + charOctets > MAX_LINE_OCTETS) {
+				out.write(CRLF);
+				out.write(' ');
+				octets = 1;
+			}
+			out.write(c);
+			octets += charOctets;
+		}
+		out.write(CRLF);
+	}
+}
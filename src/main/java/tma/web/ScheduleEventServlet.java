@@ -0,0 +1,133 @@
+package tma.web;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.context.ApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+
+import tma.exceptions.BadInput;
+import tma.exceptions.BadInputException;
+import tma.service.ScheduleEventBus;
+import tma.service.UserService;
+import tma.util.Utils;
+
+/**
+ * Pushes the changes of a schedule to the browser as server-sent events, at /events/{scheduleId}, so a calendar can be
+ * refreshed when the schedule is changed elsewhere rather than by polling. Each change (as published by
+ * {@link ScheduleEventBus}) is sent as a "change" event whose data is the schedule id; what changed can then be read
+ * with /rs/task/changes/{scheduleId}. <br/>
+ *
+ * The connection is kept open as an async request, which doesn't hold a thread while it is idle. It is closed after
+ * timeoutMillis (an init parameter), after which the browser reconnects by itself; this also gets rid of the
+ * connections of clients that went away without closing them.
+ */
+public class ScheduleEventServlet extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	/* how long the browser waits before reconnecting */
+	private static final int RETRY_MILLIS = 3000;
+
+	private UserService userService;
+	private ScheduleEventBus eventBus;
+	private long timeoutMillis;
+
+	@Override
+	public void init() throws ServletException {
+		ApplicationContext ctx = WebApplicationContextUtils.getWebApplicationContext(getServletContext());
+		userService = (UserService) ctx.getBean("userService");
+		eventBus = ctx.getBean(ScheduleEventBus.class);
+		timeoutMillis = Long.parseLong(getInitParameter("timeoutMillis"));
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException,
+			IOException {
+		Long userId = (Long) request.getAttribute("userId");
+		Utils.assertTrue(userId != null);
+		long scheduleId;
+		try {
+			scheduleId = Long.parseLong(request.getPathInfo() == null ? "" : request.getPathInfo().substring(1));
+		} catch (NumberFormatException e) {
+			throw new BadInputException(BadInput.GENERIC_MESSAGE);
+		}
+		if (!userService.hasSchedule(userId, scheduleId)) {
+			throw new BadInputException(BadInput.SCHEDULE_NOT_FOUND);
+		}
+
+		response.setContentType("text/event-stream");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Cache-Control", "no-cache");
+		AsyncContext async = request.startAsync();
+		async.setTimeout(timeoutMillis);
+		Connection connection = new Connection(async, scheduleId);
+		async.addListener(connection);
+		eventBus.subscribe(scheduleId, connection);
+		connection.send("retry: " + RETRY_MILLIS + "\n\n");
+	}
+
+	/*
+	 * An open event stream of a schedule. Events are written by the thread of the event bus, and the stream is closed
+	 * by the container's thread, so both are synchronized.
+	 */
+	private class Connection implements ScheduleEventBus.Listener, AsyncListener {
+		private final AsyncContext async;
+		private final long scheduleId;
+		private boolean closed;
+
+		private Connection(AsyncContext async, long scheduleId) {
+			this.async = async;
+			this.scheduleId = scheduleId;
+		}
+
+		public void scheduleChanged(long scheduleId) {
+			send("event: change\ndata: " + scheduleId + "\n\n");
+		}
+
+		private synchronized void send(String event) {
+			if (closed) {
+				return;
+			}
+			try {
+				async.getResponse().getWriter().write(event);
+				async.getResponse().flushBuffer();
+			} catch (IOException e) {
+				/* the client went away */
+				close();
+			}
+		}
+
+		private synchronized void close() {
+			if (!closed) {
+				closed = true;
+				eventBus.unsubscribe(scheduleId, this);
+				try {
+					async.complete();
+				} catch (IllegalStateException e) {
+					/* already completed by the container */
+				}
+			}
+		}
+
+		public void onComplete(AsyncEvent event) {
+			close();
+		}
+
+		public void onTimeout(AsyncEvent event) {
+			close();
+		}
+
+		public void onError(AsyncEvent event) {
+			close();
+		}
+
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package tma.web;
+
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import tma.service.StatisticsService;
+
+/**
+ * Exposes statistics web services. Delegates calls to {@link StatisticsService}. The statistics are about the
+ * application as a whole and contain no user data, so any logged in user can read them.
+ */
+@RestController
+public class StatisticsController {
+	@Autowired
+	private StatisticsService statisticsService;
+
+	/**
+	 * Delegates to {@link StatisticsService#getCacheStatistics()}
+	 */
+	@RequestMapping(value = "/statistics/cache", method = RequestMethod.GET)
+	public Map<String, Map<String, Long>> getCacheStatistics() {
+		return statisticsService.getCacheStatistics();
+	}
+
+	/**
+	 * Delegates to {@link StatisticsService#getConflictStatistics()}
+	 */
+	@RequestMapping(value = "/statistics/conflicts", method = RequestMethod.GET)
+	public Map<String, Object> getConflictStatistics() {
+		return statisticsService.getConflictStatistics();
+	}
+}
@@ -1,8 +1,24 @@
 package tma.web;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.PathVariable;
@@ -11,34 +27,72 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
+import tma.dao.ResultHandler;
 import tma.domain.model.Task;
+import tma.domain.model.TaskChanges;
+import tma.domain.model.TaskSummary;
 import tma.domain.model.Window;
+import tma.domain.service.DayGrid;
 import tma.exceptions.BadInput;
 import tma.exceptions.BadInputException;
+import tma.exceptions.ResourceException;
+import tma.service.AutoScheduleJob;
+import tma.service.AutoScheduleJobService;
+import tma.service.ScheduleService;
+import tma.service.ScheduleWriter;
 import tma.service.TaskService;
 import tma.service.UserService;
+import tma.util.ICalendarReader;
+import tma.util.ICalendarWriter;
 import tma.util.Utils;
 
 /**
  * Exposes task related web services. Delegates calls to {@link TaskService}. See that for information on contracts. In
  * addition, it does a check to ensure that the logged in user really owns the task or schedule being accessed to
- * prevent forgery.
+ * prevent forgery. <br/>
+ * 
+ * The changes to a schedule are run through {@link ScheduleWriter}, so concurrent changes to the same schedule wait for
+ * each other instead of failing. Imports and auto-scheduling, which can take long, are not, so they don't hold up the
+ * other changes to the schedules that share their thread. <br/>
+ * 
+ * The reads of the tasks of a schedule support conditional requests: they return an ETag, and if the client sends it
+ * back in If-None-Match and the schedule hasn't changed, they return 304 without reading the tasks.
  */
 @RestController
 public class TaskController {
+	/* not flushing after each task, the generator buffers the output */
+	private static final ObjectMapper STREAMING_MAPPER = new ObjectMapper()
+			.disable(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
 	@Autowired
 	private TaskService taskService;
 	@Autowired
 	private UserService userService;
+	@Autowired
+	private ScheduleService scheduleService;
+	@Autowired
+	private ScheduleWriter scheduleWriter;
+	@Autowired
+	private AutoScheduleJobService autoScheduleJobService;
 
 	/**
 	 * Delegates to {@link TaskService#create(Task)} 
 	 */
 	@RequestMapping(value = "/task/create", method = RequestMethod.POST)
-	public long create(@RequestBody Task task, HttpServletRequest request) {
+	public long create(@RequestBody final Task task, HttpServletRequest request) {
 		authorize(request, null, task.getScheduleId());
-		return taskService.create(task);
+		final Long id = task.getId();
+		final Long version = task.getVersion();
+		return scheduleWriter.execute(task.getScheduleId(), "create", new ScheduleWriter.Operation<Long>() {
+			public Long run() {
+				/* saving it sets them, even if the transaction is then rolled back */
+				task.setId(id);
+				task.setVersion(version);
+				return taskService.create(task);
+			}
+		});
 	}
 	/**
 	 * Delegates to {@link TaskService#read(long)} 
@@ -64,63 +118,168 @@ public class TaskController {
 
 	}
 
+	/*
+	 * The schedule of a task that has been authorized.
+	 */
+	private long scheduleOf(long taskId) {
+		Long scheduleId = userService.findScheduleId(taskId);
+		if (scheduleId == null) {
+			throw new BadInputException(BadInput.TASK_NOT_FOUND);
+		}
+		return scheduleId;
+	}
+
+	/*
+	 * Sets the ETag of a read of the tasks of a schedule, and checks it against the one the client has; if they are the
+	 * same, the status is set to 304 and true is returned, and the read should not be done. The tasks change only in
+	 * transactions that increment the version of their schedule (see TaskService), so the version and the parameters
+	 * of the read identify its result. The version is read before the tasks, so the result is never older than its
+	 * ETag.
+	 */
+	private boolean checkNotModified(WebRequest webRequest, long scheduleId, Object... params) {
+		long version = scheduleService.readVersion(scheduleId);
+		return webRequest.checkNotModified("\"" + scheduleId + "-" + version + "-"
+				+ Integer.toHexString(Arrays.hashCode(params)) + "\"");
+	}
+
 	/**
 	 * Delegates to {@link TaskService#update(Task)}
 	 */
 	@RequestMapping(value = "/task/update", method = RequestMethod.PUT)
-	public void update(@RequestBody Task task, HttpServletRequest request) {
+	public void update(@RequestBody final Task task, HttpServletRequest request) {
 		authorize(request, null, task.getScheduleId());
-		taskService.update(task);
+		scheduleWriter.execute(task.getScheduleId(), "update", new ScheduleWriter.Operation<Void>() {
+			public Void run() {
+				/* updating it changes it, e.g. its status, so each run gets a copy */
+				taskService.update(copyOf(task));
+				return null;
+			}
+		});
+	}
+
+	/*
+	 * A copy of a task as read from a request, i.e. of the fields that can be set from json.
+	 */
+	private static Task copyOf(Task task) {
+		Task copy = new Task(task.getTaskType());
+		copy.setId(task.getId());
+		copy.setVersion(task.getVersion());
+		copy.setScheduleId(task.getScheduleId());
+		copy.setName(task.getName());
+		copy.setDescription(task.getDescription());
+		copy.setWindows(task.getWindows() == null ? null : new ArrayList<Window>(task.getWindows()));
+		copy.setPreviousTaskId(task.getPreviousTaskId());
+		copy.setImmediatelyFollowsPrevious(task.getImmediatelyFollowsPrevious());
+		copy.setDuration(task.getDuration());
+		copy.setStart(task.getStart());
+		copy.setAllDay(task.isAllDay());
+		copy.setAllDayOrder(task.getAllDayOrder());
+		copy.setIncludeTime(task.isIncludeTime());
+		copy.setSchedulingStatus(task.getSchedulingStatus());
+		return copy;
 	}
 	/**
 	 * Delegates to {@link TaskService#delete(long)}
 	 */
 	@RequestMapping(value = "/task/delete/{id}", method = RequestMethod.DELETE)
-	public void delete(@PathVariable("id") long id, HttpServletRequest request) {
+	public void delete(@PathVariable("id") final long id, HttpServletRequest request) {
 		authorize(request, id, null);
-		taskService.delete(id);
+		scheduleWriter.execute(scheduleOf(id), "delete", new ScheduleWriter.Operation<Void>() {
+			public Void run() {
+				taskService.delete(id);
+				return null;
+			}
+		});
 	}
 	/**
 	 * Delegates to {@link TaskService#changeType(long)}
 	 */
 	@RequestMapping(value = "/task/changeType/{taskId}", method = RequestMethod.PUT)
-	public void changeType(@PathVariable long taskId, HttpServletRequest request) {
+	public void changeType(@PathVariable final long taskId, HttpServletRequest request) {
 		authorize(request, taskId, null);
-		taskService.changeType(taskId);
+		scheduleWriter.execute(scheduleOf(taskId), "changeType", new ScheduleWriter.Operation<Void>() {
+			public Void run() {
+				taskService.changeType(taskId);
+				return null;
+			}
+		});
 	}
+	/**
+	 * Delegates to {@link TaskService#importTasks(long, Iterator)}. The body is a json array of tasks, which is read
+	 * one task at a time while the tasks are being created.
+	 */
+	@RequestMapping(value = "/task/import/{scheduleId}", method = RequestMethod.POST)
+	public int importTasks(@PathVariable long scheduleId, HttpServletRequest request) throws IOException {
+		authorize(request, null, scheduleId);
+		JsonParser parser = STREAMING_MAPPER.getFactory().createParser(request.getInputStream());
+		try {
+			return taskService.importTasks(scheduleId, new JsonArrayIterator<Task>(parser, Task.class));
+		} finally {
+			parser.close();
+		}
+	}
+
 	/**
 	 * Delegates to {@link TaskService#moveToSchedule(long, long)} 
 	 */
 	@RequestMapping(value = "/task/moveToSchedule/{taskId}", method = RequestMethod.PUT)
-	public void moveToSchedule(@PathVariable long taskId, @RequestBody long scheduleId, HttpServletRequest request) {
+	public void moveToSchedule(@PathVariable final long taskId, @RequestBody final long scheduleId,
+			HttpServletRequest request) {
 		authorize(request, taskId, null);
 		authorize(request, null, scheduleId);
-		taskService.moveToSchedule(taskId, scheduleId);
+		/* serialized with the other changes to the schedule it leaves; the one it joins is only locked */
+		scheduleWriter.execute(scheduleOf(taskId), "moveToSchedule", new ScheduleWriter.Operation<Void>() {
+			public Void run() {
+				taskService.moveToSchedule(taskId, scheduleId);
+				return null;
+			}
+		});
 	}
 	/**
 	 * Delegates to {@link TaskService#moveAfter(long, long)}
 	 */
 	@RequestMapping(value = "/task/moveAfter/{taskIdToMove}", method = RequestMethod.PUT)
-	public void moveAfter(@PathVariable long taskIdToMove, @RequestBody long afterTaskId, HttpServletRequest request) {
+	public void moveAfter(@PathVariable final long taskIdToMove, @RequestBody final long afterTaskId,
+			HttpServletRequest request) {
 		authorize(request, taskIdToMove, null);
-		taskService.moveAfter(taskIdToMove, afterTaskId);
+		scheduleWriter.execute(scheduleOf(taskIdToMove), "moveAfter", new ScheduleWriter.Operation<Void>() {
+			public Void run() {
+				taskService.moveAfter(taskIdToMove, afterTaskId);
+				return null;
+			}
+		});
 	}
 	
 	/**
 	 * Delegates to {@link TaskService#addWindow(long, Window)}
 	 */
 	@RequestMapping(value = "/task/addWindow/{taskId}", method = RequestMethod.PUT)
-	public void addWindow(@PathVariable long taskId, @RequestBody Window window, HttpServletRequest request) {
+	public void addWindow(@PathVariable final long taskId, @RequestBody final Window window,
+			HttpServletRequest request) {
 		authorize(request, taskId, null);
-		taskService.addWindow(taskId, window);
+		scheduleWriter.execute(scheduleOf(taskId), "addWindow", new ScheduleWriter.Operation<Void>() {
+			public Void run() {
+				/* adding it can change it, so each run gets a copy */
+				Window copy = new Window(window.getStart(), window.getEnd());
+				copy.setId(window.getId());
+				taskService.addWindow(taskId, copy);
+				return null;
+			}
+		});
 	}
 	/**
 	 * Delegates to {@link TaskService#removeWindow(long, long)}
 	 */
 	@RequestMapping(value = "/task/removeWindow/{taskId}/{windowId}", method = RequestMethod.DELETE)
-	public void removeWindow(@PathVariable long taskId, @PathVariable long windowId, HttpServletRequest request) {
+	public void removeWindow(@PathVariable final long taskId, @PathVariable final long windowId,
+			HttpServletRequest request) {
 		authorize(request, taskId, null);
-		taskService.removeWindow(taskId, windowId);
+		scheduleWriter.execute(scheduleOf(taskId), "removeWindow", new ScheduleWriter.Operation<Void>() {
+			public Void run() {
+				taskService.removeWindow(taskId, windowId);
+				return null;
+			}
+		});
 	}
 	
 	/**
@@ -128,51 +287,298 @@ public class TaskController {
 	 */
 	@RequestMapping(value = "/task/findConflictingTasks/{scheduleId}", method = RequestMethod.GET)
 	public List<Object[]> findConflictingTasks(@PathVariable long scheduleId, @RequestParam Long start,
-			@RequestParam Long end, @RequestParam boolean validOnly, HttpServletRequest request) {
+			@RequestParam Long end, @RequestParam boolean validOnly, HttpServletRequest request,
+			WebRequest webRequest) {
 		authorize(request, null, scheduleId);
+		if (checkNotModified(webRequest, scheduleId, start, end, validOnly)) {
+			return null;
+		}
 		return taskService.findConflictingTasks(scheduleId, start, end, validOnly);
 	}
+	/**
+	 * Delegates to {@link TaskService#findBusyTime(long, Long, Long)}
+	 */
+	@RequestMapping(value = "/task/findBusyTime/{scheduleId}", method = RequestMethod.GET)
+	public List<long[]> findBusyTime(@PathVariable long scheduleId, @RequestParam(required = false) Long start,
+			@RequestParam(required = false) Long end, HttpServletRequest request, WebRequest webRequest) {
+		authorize(request, null, scheduleId);
+		if (checkNotModified(webRequest, scheduleId, start, end)) {
+			return null;
+		}
+		return taskService.findBusyTime(scheduleId, start, end);
+	}
+	/**
+	 * Delegates to {@link TaskService#findFreeTime(long, long, long)}
+	 */
+	@RequestMapping(value = "/task/findFreeTime/{scheduleId}", method = RequestMethod.GET)
+	public List<long[]> findFreeTime(@PathVariable long scheduleId, @RequestParam long start, @RequestParam long end,
+			HttpServletRequest request, WebRequest webRequest) {
+		authorize(request, null, scheduleId);
+		if (checkNotModified(webRequest, scheduleId, start, end)) {
+			return null;
+		}
+		return taskService.findFreeTime(scheduleId, start, end);
+	}
 	/**
 	 * Delegates to {@link TaskService#findFloatingTasksOrdered(long)}
 	 */
 	@RequestMapping(value = "/task/findFloatingTasksOrdered/{scheduleId}", method = RequestMethod.GET)
-	public List<List<Task>> findFloatingTasksOrdered(@PathVariable long scheduleId, HttpServletRequest request) {
+	public List<List<Task>> findFloatingTasksOrdered(@PathVariable long scheduleId, HttpServletRequest request,
+			WebRequest webRequest) {
 		authorize(request, null, scheduleId);
+		if (checkNotModified(webRequest, scheduleId)) {
+			return null;
+		}
 		return taskService.findFloatingTasksOrdered(scheduleId);
 	}
 	/**
-	 * Delegates to {@link TaskService#findTasks(long, Long, Long, String)}
+	 * Delegates to {@link TaskService#findTasks(long, Long, Long, String, Long, Long, Integer)}. The page to return is
+	 * given by the after parameter, which has the form start:id of the last task of the previous page (start can be
+	 * "null"). If it is not given, the first page is returned.
 	 */
 	@RequestMapping(value = "/task/findTasks/{scheduleId}", method = RequestMethod.GET)
 	public List<Task> findTasks(@PathVariable long scheduleId, @RequestParam(required = false) Long start, @RequestParam(required = false) Long end,
-			@RequestParam(required = false) String name, HttpServletRequest request) {
+			@RequestParam(required = false) String name, @RequestParam(required = false) Integer limit,
+			@RequestParam(required = false) String after, HttpServletRequest request, WebRequest webRequest) {
 		authorize(request, null, scheduleId);
-		return taskService.findTasks(scheduleId, start, end, name);
+		if (checkNotModified(webRequest, scheduleId, start, end, name, limit, after)) {
+			return null;
+		}
+		Long afterStart = null;
+		Long afterId = null;
+		if (after != null) {
+			String[] parts = after.split(":");
+			try {
+				if (parts.length != 2) {
+					throw new NumberFormatException();
+				}
+				afterStart = "null".equals(parts[0]) ? null : Long.valueOf(parts[0]);
+				afterId = Long.valueOf(parts[1]);
+			} catch (NumberFormatException e) {
+				throw new BadInputException(BadInput.GENERIC_MESSAGE);
+			}
+		}
+		return taskService.findTasks(scheduleId, start, end, name, afterStart, afterId, limit);
 	}
 	/**
-	 * Delegates to {@link TaskService#autoSchedule(long, List, Long)}
+	 * Delegates to {@link TaskService#findTaskSummaries(long, Long, Long, String)}
+	 */
+	@RequestMapping(value = "/task/findTaskSummaries/{scheduleId}", method = RequestMethod.GET)
+	public List<TaskSummary> findTaskSummaries(@PathVariable long scheduleId,
+			@RequestParam(required = false) Long start, @RequestParam(required = false) Long end,
+			@RequestParam(required = false) String name, HttpServletRequest request, WebRequest webRequest) {
+		authorize(request, null, scheduleId);
+		if (checkNotModified(webRequest, scheduleId, start, end, name)) {
+			return null;
+		}
+		return taskService.findTaskSummaries(scheduleId, start, end, name);
+	}
+
+	/**
+	 * Delegates to {@link TaskService#findChanges(long, long)}. Without since, returns all the tasks of the schedule.
+	 */
+	@RequestMapping(value = "/task/changes/{scheduleId}", method = RequestMethod.GET)
+	public TaskChanges findChanges(@PathVariable long scheduleId,
+			@RequestParam(required = false, defaultValue = "0") long since, HttpServletRequest request) {
+		authorize(request, null, scheduleId);
+		return taskService.findChanges(scheduleId, since);
+	}
+
+	/**
+	 * Delegates to {@link TaskService#findDayGrid(long, long, int, String, int)}. By default, the grid is 6 weeks long,
+	 * as shown by the month view, in UTC, with up to 10 tasks per day.
+	 */
+	@RequestMapping(value = "/task/monthGrid/{scheduleId}", method = RequestMethod.GET)
+	public List<DayGrid.Day> monthGrid(@PathVariable long scheduleId, @RequestParam long start,
+			@RequestParam(required = false, defaultValue = "42") int days,
+			@RequestParam(required = false, defaultValue = "UTC") String timeZone,
+			@RequestParam(required = false, defaultValue = "10") int maxTasksPerDay, HttpServletRequest request,
+			WebRequest webRequest) {
+		authorize(request, null, scheduleId);
+		if (checkNotModified(webRequest, scheduleId, start, days, timeZone, maxTasksPerDay)) {
+			return null;
+		}
+		return taskService.findDayGrid(scheduleId, start, days, timeZone, maxTasksPerDay);
+	}
+
+	/**
+	 * Delegates to {@link TaskService#findTasks(long, Long, Long, String, ResultHandler)}. Returns the same as
+	 * {@link #findTasks(long, Long, Long, String, Integer, String, HttpServletRequest, WebRequest)} without paging, but
+	 * the tasks are written to the response one by one as they are read, so large results don't have to be held in
+	 * memory.
+	 */
+	@RequestMapping(value = "/task/findTasksStream/{scheduleId}", method = RequestMethod.GET)
+	public void findTasksStream(@PathVariable long scheduleId, @RequestParam(required = false) Long start,
+			@RequestParam(required = false) Long end, @RequestParam(required = false) String name,
+			HttpServletRequest request, HttpServletResponse response) throws IOException {
+		authorize(request, null, scheduleId);
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		final JsonGenerator generator = STREAMING_MAPPER.getFactory().createGenerator(response.getOutputStream(),
+				JsonEncoding.UTF8);
+		generator.writeStartArray();
+		taskService.findTasks(scheduleId, start, end, name, new ResultHandler<Task>() {
+			public void handle(Task task) {
+				try {
+					STREAMING_MAPPER.writeValue(generator, task);
+				} catch (IOException e) {
+					throw new ResourceException();
+				}
+			}
+		});
+		generator.writeEndArray();
+		generator.close();
+	}
+	/**
+	 * Exports the tasks of the schedule that have a start time as an iCalendar file. Like
+	 * {@link #findTasksStream(long, Long, Long, String, HttpServletRequest, HttpServletResponse)}, the events are
+	 * written to the response as the tasks are read. See {@link ICalendarWriter}.
+	 */
+	@RequestMapping(value = "/task/exportCalendar/{scheduleId}", method = RequestMethod.GET)
+	public void exportCalendar(@PathVariable long scheduleId, HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		authorize(request, null, scheduleId);
+		response.setContentType("text/calendar");
+		response.setCharacterEncoding("UTF-8");
+		response.setHeader("Content-Disposition", "attachment; filename=\"schedule-" + scheduleId + ".ics\"");
+		final ICalendarWriter writer = new ICalendarWriter(new BufferedWriter(new OutputStreamWriter(
+				response.getOutputStream(), "UTF-8")));
+		writer.start();
+		taskService.findTasks(scheduleId, null, null, null, new ResultHandler<Task>() {
+			public void handle(Task task) {
+				try {
+					writer.write(task);
+				} catch (IOException e) {
+					throw new ResourceException();
+				}
+			}
+		});
+		writer.end();
+	}
+
+	/**
+	 * Imports the events of an iCalendar file in the body as fixed tasks of the schedule. Delegates to
+	 * {@link TaskService#importTasks(long, Iterator)}, reading the events while the tasks are being created. See
+	 * {@link ICalendarReader}.
+	 */
+	@RequestMapping(value = "/task/importCalendar/{scheduleId}", method = RequestMethod.POST)
+	public int importCalendar(@PathVariable long scheduleId, HttpServletRequest request) throws IOException {
+		authorize(request, null, scheduleId);
+		InputStreamReader reader = new InputStreamReader(request.getInputStream(), "UTF-8");
+		try {
+			return taskService.importTasks(scheduleId, new ICalendarReader(reader));
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Delegates to {@link TaskService#autoSchedule(long, List, Long, boolean)}
 	 */
 	@RequestMapping(value = "/task/autoSchedule/{scheduleId}", method = RequestMethod.PUT)
 	public List<Long> autoSchedule(@PathVariable long scheduleId, @RequestBody List<Long> taskIds,
-			@RequestParam Long earliestStartTime, HttpServletRequest request) {
+			@RequestParam Long earliestStartTime, @RequestParam(required = false) Boolean parallel,
+			HttpServletRequest request) {
+		authorize(request, null, scheduleId);
+		return taskService.autoSchedule(scheduleId, taskIds, earliestStartTime, Boolean.TRUE.equals(parallel));
+	}
+	/**
+	 * Delegates to {@link AutoScheduleJobService#submit(long, List, Long, boolean)}
+	 */
+	@RequestMapping(value = "/task/autoScheduleAsync/{scheduleId}", method = RequestMethod.PUT)
+	public String autoScheduleAsync(@PathVariable long scheduleId, @RequestBody List<Long> taskIds,
+			@RequestParam Long earliestStartTime, @RequestParam(required = false) Boolean parallel,
+			HttpServletRequest request) {
 		authorize(request, null, scheduleId);
-		return taskService.autoSchedule(scheduleId, taskIds, earliestStartTime);
+		return autoScheduleJobService.submit(scheduleId, taskIds, earliestStartTime, Boolean.TRUE.equals(parallel));
+	}
+	/**
+	 * Delegates to {@link AutoScheduleJobService#read(String)}
+	 */
+	@RequestMapping(value = "/task/autoScheduleJob/{jobId}", method = RequestMethod.GET)
+	public AutoScheduleJob readAutoScheduleJob(@PathVariable String jobId, HttpServletRequest request) {
+		AutoScheduleJob job = autoScheduleJobService.read(jobId);
+		authorize(request, null, job.getScheduleId());
+		return job;
 	}
 	/**
 	 * Delegates to {@link TaskService#unschedule(long, List)}
 	 */
 	@RequestMapping(value = "/task/unschedule/{scheduleId}", method = RequestMethod.PUT)
-	public void unschedule(@PathVariable long scheduleId, @RequestBody List<Long> taskIds, HttpServletRequest request) {
+	public void unschedule(@PathVariable final long scheduleId, @RequestBody final List<Long> taskIds,
+			HttpServletRequest request) {
 		authorize(request, null, scheduleId);
-		taskService.unschedule(scheduleId, taskIds);
+		scheduleWriter.execute(scheduleId, "unschedule", new ScheduleWriter.Operation<Void>() {
+			public Void run() {
+				taskService.unschedule(scheduleId, taskIds);
+				return null;
+			}
+		});
 	}
 	/**
 	 * Delegates to {@link TaskService#invalidatePastTasks(long)}
 	 */
 	@RequestMapping(value = "/task/invalidatePastTasks/{scheduleId}", method = RequestMethod.PUT)
-	public int invalidatePastTasks(@PathVariable long scheduleId, HttpServletRequest request) {
+	public int invalidatePastTasks(@PathVariable final long scheduleId, HttpServletRequest request) {
 		authorize(request, null, scheduleId);
-		return taskService.invalidatePastTasks(scheduleId);
+		return scheduleWriter.execute(scheduleId, "invalidatePastTasks", new ScheduleWriter.Operation<Integer>() {
+			public Integer run() {
+				return taskService.invalidatePastTasks(scheduleId);
+			}
+		});
 	}
 
+
+	/**
+	 * Reads the elements of a json array one by one. Malformed json is reported as bad input.
+	 */
+	private static class JsonArrayIterator<T> implements Iterator<T> {
+		private final JsonParser parser;
+		private final Class<T> type;
+		/* the token that starts the next element, if it has been read already */
+		private JsonToken next;
+
+		private JsonArrayIterator(JsonParser parser, Class<T> type) {
+			this.parser = parser;
+			this.type = type;
+			if (nextToken() != JsonToken.START_ARRAY) {
+				throw new BadInputException(BadInput.GENERIC_MESSAGE);
+			}
+		}
+
+		public boolean hasNext() {
+			if (next == null) {
+				next = nextToken();
+				if (next == null) {
+					/* the array was not closed */
+					throw new BadInputException(BadInput.GENERIC_MESSAGE);
+				}
+			}
+			return next != JsonToken.END_ARRAY;
+		}
+
+		public T next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			next = null;
+			try {
+				return STREAMING_MAPPER.readValue(parser, type);
+			} catch (IOException e) {
+				throw new BadInputException(BadInput.GENERIC_MESSAGE);
+			}
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		private JsonToken nextToken() {
+			try {
+				return parser.nextToken();
+			} catch (IOException e) {
+				throw new BadInputException(BadInput.GENERIC_MESSAGE);
+			}
+		}
+	}
 }
@@ -22,8 +22,25 @@ tma.createController('app_cal', {
 		});
 		con.$root.append($html);
 		con._markSelectedButton();
+		con.listenForChanges();
 	},
  	// actions
+	/**
+	 * Reloads the selected sub whenever the schedule is changed, e.g. in another session. The changes are pushed by
+	 * the server as server-sent events; the browser reconnects by itself if the connection is closed. 
+	 */
+	listenForChanges : function(){
+		var con = this;
+		if(con.events || !window.EventSource){
+			return;
+		}
+		con.events = new EventSource('/tma/events/' + tma.app.mod.scheduleId);
+		con.events.addEventListener('change', function(e){
+			if(con.active){
+				con.loc.selectedSub.load(false, true);
+			}
+		});
+	},
 	/**
 	 * Switch to another sub of the main page, such as week, month, etc. 
 	 */
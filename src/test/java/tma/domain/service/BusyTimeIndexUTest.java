@@ -0,0 +1,88 @@
+package tma.domain.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import tma.test.UnitTest;
+
+public class BusyTimeIndexUTest extends UnitTest {
+
+	@Test
+	public void testMerge() {
+		BusyTimeIndex index = new BusyTimeIndex(1);
+		index.add(10L, 20L);
+		index.add(30L, 40L);
+		index.add(0L, 5L);
+		assertEquals(3, index.size());
+
+		/* touches the first interval and overlaps the second */
+		index.add(5L, 12L);
+		assertEquals(2, index.size());
+		assertEquals(0L, index.getStart(0));
+		assertEquals(20L, index.getEnd(0));
+
+		/* swallows everything */
+		index.add(-1L, 50L);
+		assertEquals(1, index.size());
+		assertEquals(-1L, index.getStart(0));
+		assertEquals(50L, index.getEnd(0));
+	}
+
+	@Test
+	public void testFindFirstAvailableSlot() {
+		/* same data as the functional test for the db based version */
+		BusyTimeIndex index = new BusyTimeIndex();
+		index.add(0L, 1L);
+		index.add(2L, 3L);
+		index.add(3L, 4L);
+
+		assertEquals(Long.valueOf(1L), index.findFirstAvailableSlot(0L, null, 1L));
+		assertEquals(Long.valueOf(4L), index.findFirstAvailableSlot(3L, null, 1L));
+		assertEquals(Long.valueOf(4L), index.findFirstAvailableSlot(0L, null, 2L));
+		assertEquals(Long.valueOf(-10L), index.findFirstAvailableSlot(-10L, null, 2L));
+		assertNull(index.findFirstAvailableSlot(0L, 4L, 3L));
+		assertNull(index.findFirstAvailableSlot(0L, 1L, 2L));
+		assertEquals(Long.valueOf(1L), index.findFirstAvailableSlot(0L, 2L, 1L));
+	}
+
+	@Test
+	public void testFreeBusy() {
+		BusyTimeIndex index = new BusyTimeIndex();
+		index.add(0L, 10L);
+		index.add(20L, 30L);
+		index.add(40L, 50L);
+
+		List<long[]> busy = index.findBusy(5L, 45L);
+		assertEquals(3, busy.size());
+		assertTrue(Arrays.equals(new long[] { 5L, 10L }, busy.get(0)));
+		assertTrue(Arrays.equals(new long[] { 40L, 45L }, busy.get(2)));
+		assertEquals(3, index.findBusy(null, null).size());
+		assertEquals(0, index.findBusy(10L, 20L).size());
+
+		List<long[]> free = index.findFree(5L, 60L);
+		assertEquals(3, free.size());
+		assertTrue(Arrays.equals(new long[] { 10L, 20L }, free.get(0)));
+		assertTrue(Arrays.equals(new long[] { 30L, 40L }, free.get(1)));
+		assertTrue(Arrays.equals(new long[] { 50L, 60L }, free.get(2)));
+		assertEquals(0, index.findFree(20L, 30L).size());
+	}
+
+	@Test
+	public void testPlacement() {
+		BusyTimeIndex index = new BusyTimeIndex();
+		for (int i = 0; i < 100; i++) {
+			Long slot = index.findFirstAvailableSlot(0L, null, 3L);
+			assertEquals(Long.valueOf(3L * i), slot);
+			index.add(slot, slot + 3L);
+		}
+		assertEquals(1, index.size());
+		assertTrue(index.isBusy(299L, 300L));
+		assertTrue(!index.isBusy(300L, 301L));
+	}
+}
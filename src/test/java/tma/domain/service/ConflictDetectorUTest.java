@@ -0,0 +1,95 @@
+package tma.domain.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import tma.test.UnitTest;
+
+public class ConflictDetectorUTest extends UnitTest {
+
+	@Test
+	public void testPairs() {
+		ConflictDetector detector = new ConflictDetector(null, null, false);
+		/* id, start, end: 1 and 2 overlap; 2 and 3 touch, which is not an overlap */
+		detector.add(2L, 0L, 10L, false, true);
+		detector.add(1L, 5L, 15L, false, true);
+		detector.add(3L, 15L, 20L, false, true);
+		assertEquals(1, detector.getConflicts().size());
+		assertTrue(Arrays.equals(new long[] { 1L, 2L }, detector.getConflicts().get(0)));
+	}
+
+	@Test
+	public void testFixedAndValid() {
+		ConflictDetector detector = new ConflictDetector(null, null, true);
+		detector.add(1L, 0L, 10L, true, false);
+		detector.add(2L, 0L, 10L, true, false);
+		detector.add(3L, 1L, 10L, false, false);
+		detector.add(4L, 2L, 10L, false, true);
+		/* 1-2 both fixed, 1-3 and 2-3 not valid */
+		assertEquals(3, detector.getConflicts().size());
+	}
+
+	@Test
+	public void testRange() {
+		ConflictDetector detector = new ConflictDetector(100L, 200L, false);
+		detector.add(1L, 0L, 50L, false, true);
+		detector.add(2L, 10L, 20L, false, true);
+		detector.add(3L, 150L, 300L, false, true);
+		detector.add(4L, 250L, 260L, false, true);
+		assertTrue(!detector.isDone());
+		detector.add(5L, 400L, 500L, false, true);
+		assertTrue(detector.isDone());
+		/* 1-2 is before the range, 3-4 is reported since 3 is in the range */
+		assertEquals(1, detector.getConflicts().size());
+		assertTrue(Arrays.equals(new long[] { 3L, 4L }, detector.getConflicts().get(0)));
+	}
+
+	@Test
+	public void testSameAsPairwise() {
+		Random random = new Random(1);
+		List<long[]> tasks = new ArrayList<long[]>();
+		for (long id = 0; id < 500; id++) {
+			long start = random.nextInt(10000);
+			tasks.add(new long[] { id, start, start + 1 + random.nextInt(100), random.nextInt(2), random.nextInt(2) });
+		}
+		Set<String> expected = new HashSet<String>();
+		for (long[] t1 : tasks) {
+			for (long[] t2 : tasks) {
+				if (t1[0] < t2[0] && t1[1] < t2[2] && t2[1] < t1[2] && !(t1[3] == 1 && t2[3] == 1)
+						&& (t1[4] == 1 || t2[4] == 1)) {
+					expected.add(t1[0] + "," + t2[0]);
+				}
+			}
+		}
+
+		Collections.sort(tasks, new Comparator<long[]>() {
+			public int compare(long[] t1, long[] t2) {
+				if (t1[1] != t2[1]) {
+					return t1[1] < t2[1] ? -1 : 1;
+				}
+				return t1[0] < t2[0] ? -1 : 1;
+			}
+		});
+		ConflictDetector detector = new ConflictDetector(null, null, true);
+		for (long[] task : tasks) {
+			detector.add(task[0], task[1], task[2], task[3] == 1, task[4] == 1);
+		}
+		Set<String> actual = new HashSet<String>();
+		for (long[] pair : detector.getConflicts()) {
+			actual.add(pair[0] + "," + pair[1]);
+		}
+		assertEquals(expected.size(), detector.getConflicts().size());
+		assertEquals(expected, actual);
+	}
+}
@@ -0,0 +1,63 @@
+package tma.domain.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import tma.domain.model.TaskSummary;
+import tma.domain.model.Task.TaskType;
+import tma.test.UnitTest;
+import tma.util.Utils;
+
+public class DayGridUTest extends UnitTest {
+
+	@Test
+	public void testBuckets() {
+		/* 2014-01-01T10:00Z, a time in the first day */
+		long day0 = 1388534400000L;
+		DayGrid grid = new DayGrid(day0 + 10 * Utils.HOUR, 3, TimeZone.getTimeZone("UTC"), 2);
+		assertEquals(day0, grid.getStart());
+		assertEquals(day0 + 3 * Utils.DAY, grid.getEnd());
+
+		/* starts before the grid and ends exactly at the end of the first day */
+		grid.add(task(1, day0 - Utils.HOUR, Utils.DAY + Utils.HOUR, false, null));
+		/* all day tasks on day 1, listed by allDayOrder, the one without an order last */
+		grid.add(task(2, day0 + Utils.DAY, Utils.DAY, true, null));
+		grid.add(task(3, day0 + Utils.DAY, Utils.DAY, true, 20L));
+		grid.add(task(4, day0 + Utils.DAY, Utils.DAY, true, 10L));
+		/* spans days 1 and 2 */
+		grid.add(task(5, day0 + Utils.DAY + Utils.HOUR, Utils.DAY, false, null));
+		grid.add(task(6, day0 + 2 * Utils.DAY + 2 * Utils.HOUR, Utils.HOUR, false, null));
+		grid.add(task(7, day0 + 2 * Utils.DAY + 3 * Utils.HOUR, Utils.HOUR, false, null));
+
+		List<DayGrid.Day> days = grid.getDays();
+		assertEquals(3, days.size());
+		assertEquals(1, days.get(0).getCount());
+		assertEquals(4, days.get(1).getCount());
+		assertEquals(4L, days.get(1).getTasks().get(0).getId());
+		assertEquals(3L, days.get(1).getTasks().get(1).getId());
+		assertEquals(2, days.get(1).getTasks().size());
+		assertEquals(3, days.get(2).getCount());
+		assertEquals(5L, days.get(2).getTasks().get(0).getId());
+		assertEquals(6L, days.get(2).getTasks().get(1).getId());
+	}
+
+	@Test
+	public void testDaylightSaving() {
+		/* 2014-03-09 is 23 hours long in New York; midnight there is 05:00Z */
+		long march8 = 1394254800000L;
+		DayGrid grid = new DayGrid(march8 + Utils.HOUR, 3, TimeZone.getTimeZone("America/New_York"), 1);
+		List<DayGrid.Day> days = grid.getDays();
+		assertEquals(march8, days.get(0).getStart());
+		assertEquals(Utils.DAY.longValue(), days.get(0).getEnd() - days.get(0).getStart());
+		assertEquals(23 * Utils.HOUR, days.get(1).getEnd() - days.get(1).getStart());
+		assertEquals(days.get(1).getEnd(), days.get(2).getStart());
+	}
+
+	private static TaskSummary task(long id, long start, long duration, boolean allDay, Long allDayOrder) {
+		return new TaskSummary(id, null, start, duration, allDay, allDayOrder, TaskType.FIXED, null);
+	}
+}
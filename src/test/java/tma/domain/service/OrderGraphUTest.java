@@ -0,0 +1,84 @@
+package tma.domain.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import tma.domain.model.Task.SchedulingStatus;
+import tma.test.UnitTest;
+
+public class OrderGraphUTest extends UnitTest {
+
+	@Test
+	public void testChainInvalidation() {
+		OrderGraph graph = new OrderGraph();
+		/* 1 <- 2 <- 3 <- 4, all well ordered except that 1 is not valid */
+		graph.add(1L, null, SchedulingStatus.FAILED, null, null, false);
+		graph.add(2L, 1L, SchedulingStatus.VALID, 10L, 20L, false);
+		graph.add(3L, 2L, SchedulingStatus.VALID, 20L, 30L, true);
+		graph.add(4L, 3L, SchedulingStatus.VALID, 40L, 50L, false);
+
+		List<Long> result = graph.findBadlyOrdered(Arrays.asList(1L));
+		assertEquals(Arrays.asList(2L, 3L, 4L), result);
+		/* already invalid, so nothing more */
+		assertTrue(graph.findBadlyOrdered().isEmpty());
+	}
+
+	@Test
+	public void testOnlyDownstream() {
+		OrderGraph graph = new OrderGraph();
+		/* 2 is badly ordered, but only the chain of 4 changed */
+		graph.add(1L, null, SchedulingStatus.VALID, 10L, 20L, false);
+		graph.add(2L, 1L, SchedulingStatus.VALID, 15L, 25L, false);
+		graph.add(3L, null, SchedulingStatus.VALID, 10L, 20L, false);
+		graph.add(4L, 3L, SchedulingStatus.VALID, 30L, 40L, true);
+		graph.add(5L, 4L, SchedulingStatus.VALID, 40L, 50L, false);
+
+		assertEquals(Arrays.asList(4L, 5L), graph.findBadlyOrdered(Arrays.asList(3L)));
+		assertEquals(Arrays.asList(2L), graph.findBadlyOrdered());
+	}
+
+	@Test
+	public void testWellOrdered() {
+		OrderGraph graph = new OrderGraph();
+		/* done is fine too, fixed tasks have no status, and a missing previous task is ignored */
+		graph.add(1L, null, SchedulingStatus.DONE, 0L, 10L, false);
+		graph.add(2L, 1L, SchedulingStatus.VALID, 10L, 20L, true);
+		graph.add(3L, null, null, 0L, 10L, false);
+		graph.add(4L, 3L, SchedulingStatus.VALID, 20L, 30L, false);
+		graph.add(5L, 100L, SchedulingStatus.VALID, 20L, 30L, false);
+		assertTrue(graph.findBadlyOrdered().isEmpty());
+		assertTrue(graph.findBadlyOrdered(Collections.singletonList(200L)).isEmpty());
+	}
+
+	@Test
+	public void testCycle() {
+		OrderGraph graph = new OrderGraph();
+		graph.add(1L, 3L, SchedulingStatus.VALID, 0L, 10L, false);
+		graph.add(2L, 1L, SchedulingStatus.VALID, 10L, 20L, false);
+		graph.add(3L, 2L, SchedulingStatus.VALID, 20L, 30L, false);
+		assertEquals(new HashSet<Long>(Arrays.asList(1L, 2L, 3L)), new HashSet<Long>(graph.findBadlyOrdered()));
+	}
+
+	@Test
+	public void testGrownStepByStep() {
+		/* the way TaskService grows it: the changed task and the one it follows, then the followers of what was found */
+		OrderGraph graph = new OrderGraph();
+		graph.add(1L, null, SchedulingStatus.FAILED, null, null, false);
+		graph.add(2L, 1L, SchedulingStatus.VALID, 10L, 20L, false);
+		assertEquals(Arrays.asList(2L), graph.findBadlyOrdered(Arrays.asList(2L)));
+		assertTrue(graph.contains(2L));
+		assertTrue(!graph.contains(3L));
+
+		graph.add(3L, 2L, SchedulingStatus.VALID, 20L, 30L, false);
+		assertEquals(Arrays.asList(3L), graph.findBadlyOrdered(Arrays.asList(3L)));
+		graph.add(4L, 3L, SchedulingStatus.INVALID, 30L, 40L, false);
+		assertTrue(graph.findBadlyOrdered(Arrays.asList(4L)).isEmpty());
+	}
+}
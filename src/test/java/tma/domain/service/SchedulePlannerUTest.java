@@ -0,0 +1,128 @@
+package tma.domain.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import tma.domain.model.Task;
+import tma.domain.model.Task.SchedulingStatus;
+import tma.domain.model.Task.TaskType;
+import tma.domain.model.Window;
+import tma.test.TestUtils;
+import tma.test.UnitTest;
+
+public class SchedulePlannerUTest extends UnitTest {
+
+	private Task[] createTasks(int number) {
+		Task template = new Task();
+		template.setDuration(2L);
+		template.setScheduleId(0L);
+		template.setTaskType(TaskType.FLOATING);
+		template.setSchedulingStatus(SchedulingStatus.UNSCHEDULED);
+		Task[] tasks = TestUtils.createTaskObjects(template, number);
+		for (int i = 0; i < number; i++) {
+			tasks[i].setId((long) i);
+		}
+		return tasks;
+	}
+
+	@Test
+	public void testOrderedPlacement() {
+		Task[] tasks = createTasks(3);
+		/* 2 follows 1 which follows 0 */
+		tasks[1].setPreviousTaskId(0L);
+		tasks[2].setPreviousTaskId(1L);
+
+		BusyTimeIndex busyTime = new BusyTimeIndex();
+		busyTime.add(2L, 3L);
+		SchedulePlanner planner = new SchedulePlanner(busyTime, Arrays.asList(tasks));
+		List<List<Task>> groups = TaskGrouper.buildOrderedTaskGroups(Arrays.asList(tasks[2], tasks[1], tasks[0]));
+		List<Long> failed = planner.plan(groups, 0L);
+
+		assertTrue(failed.isEmpty());
+		assertEquals(Long.valueOf(0L), tasks[0].getStart());
+		assertEquals(Long.valueOf(3L), tasks[1].getStart());
+		assertEquals(Long.valueOf(5L), tasks[2].getStart());
+		assertEquals(Long.valueOf(7L), tasks[2].getEnd());
+		assertEquals(SchedulingStatus.VALID, tasks[2].getSchedulingStatus());
+	}
+
+	@Test
+	public void testWindows() {
+		Task[] tasks = createTasks(2);
+		tasks[0].addWindow(new Window(0L, 3L));
+		tasks[1].addWindow(new Window(0L, 3L));
+
+		SchedulePlanner planner = new SchedulePlanner(new BusyTimeIndex(), Arrays.asList(tasks));
+		List<List<Task>> groups = TaskGrouper.buildOrderedTaskGroups(Arrays.asList(tasks));
+		List<Long> failed = planner.plan(groups, 0L);
+
+		/* only one of them fits */
+		assertEquals(Arrays.asList(1L), failed);
+		assertEquals(SchedulingStatus.VALID, tasks[0].getSchedulingStatus());
+		assertEquals(SchedulingStatus.FAILED, tasks[1].getSchedulingStatus());
+	}
+
+	@Test
+	public void testImmediatelyFollows() {
+		Task[] tasks = createTasks(2);
+		tasks[1].setPreviousTaskId(0L);
+		tasks[1].setImmediatelyFollowsPrevious(true);
+
+		BusyTimeIndex busyTime = new BusyTimeIndex();
+		busyTime.add(2L, 3L);
+		SchedulePlanner planner = new SchedulePlanner(busyTime, Arrays.asList(tasks));
+		List<Long> failed = planner.plan(TaskGrouper.buildOrderedTaskGroups(Arrays.asList(tasks)), 0L);
+
+		assertEquals(Arrays.asList(1L), failed);
+	}
+
+	@Test
+	public void testProgress() {
+		Task[] tasks = createTasks(3);
+		tasks[2].addWindow(new Window(0L, 1L));
+		final int[] counts = new int[3];
+		SchedulePlanner planner = new SchedulePlanner(new BusyTimeIndex(), Arrays.asList(tasks));
+		planner.setProgressListener(new SchedulePlanner.ProgressListener() {
+			public void planningStarted(int taskCount) {
+				counts[0] = taskCount;
+			}
+
+			public void taskPlanned(Task task, boolean placed) {
+				counts[placed ? 1 : 2]++;
+			}
+		});
+		planner.plan(TaskGrouper.buildOrderedTaskGroups(Arrays.asList(tasks)), 0L);
+
+		assertTrue(Arrays.equals(new int[] { 3, 2, 1 }, counts));
+	}
+
+	@Test
+	public void testParallelSameAsSequential() {
+		Task[] sequential = createTasks(200);
+		Task[] parallel = createTasks(200);
+		for (int i = 0; i < 200; i++) {
+			/* windows of every 10 tasks overlap each other, but not those of the other tasks */
+			long windowStart = (i / 10) * 100L;
+			sequential[i].addWindow(new Window(windowStart, windowStart + 15L));
+			parallel[i].addWindow(new Window(windowStart, windowStart + 15L));
+		}
+		List<Long> sequentialFailed = new SchedulePlanner(new BusyTimeIndex(), Arrays.asList(sequential)).plan(
+				TaskGrouper.buildOrderedTaskGroups(Arrays.asList(sequential)), 0L);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		List<Long> parallelFailed = new SchedulePlanner(new BusyTimeIndex(), Arrays.asList(parallel)).planParallel(
+				TaskGrouper.buildOrderedTaskGroups(Arrays.asList(parallel)), 0L, pool);
+		pool.shutdown();
+
+		assertEquals(sequentialFailed, parallelFailed);
+		for (int i = 0; i < 200; i++) {
+			assertEquals(sequential[i].getStart(), parallel[i].getStart());
+			assertEquals(sequential[i].getSchedulingStatus(), parallel[i].getSchedulingStatus());
+		}
+	}
+}
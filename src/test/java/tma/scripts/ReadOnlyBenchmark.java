@@ -0,0 +1,113 @@
+package tma.scripts;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import tma.dao.TaskDao;
+import tma.domain.model.Schedule;
+import tma.domain.model.Task;
+import tma.domain.model.Task.TaskType;
+import tma.domain.model.User;
+import tma.domain.model.Window;
+import tma.service.TaskService;
+import tma.service.UserService;
+import tma.test.Script;
+import tma.util.Utils;
+
+/**
+ * Compares the CPU time that reading the tasks of a schedule takes in a read-write transaction and in a read-only
+ * transaction, as the find methods of {@link TaskService} do. Results are logged. Run with:
+ * 
+ * mvn surefire:test -Dtest=ReadOnlyBenchmark#benchmarkFindTasks
+ */
+public class ReadOnlyBenchmark extends Script {
+	public static final Logger LOGGER = Logger.getLogger(ReadOnlyBenchmark.class.getName());
+
+	private static final int TASKS = 2000;
+	private static final int WARMUP_RUNS = 20;
+	private static final int RUNS = 100;
+
+	@Autowired
+	private UserService userService;
+	@Autowired
+	private TaskService taskService;
+	@Autowired
+	private TaskDao taskDao;
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Test
+	public void benchmarkFindTasks() {
+		User user = userService.findUser("readOnlyBenchmark");
+		if (user != null) {
+			userService.delete(user.getId());
+		}
+		user = new User();
+		user.setUsername("readOnlyBenchmark");
+		user.setPassword("xxxx");
+		user.setEmail("example@example.com");
+		Schedule schedule = new Schedule();
+		schedule.setName("readOnlyBenchmark");
+		user.addSchedule(schedule);
+		long userId = userService.create(user);
+		final long scheduleId = user.getSchedules().get(0).getId();
+
+		try {
+			List<Task> tasks = new ArrayList<Task>();
+			for (int i = 0; i < TASKS; i++) {
+				Task task;
+				if (i % 2 == 0) {
+					task = new Task(TaskType.FIXED);
+					task.setStart(i * Utils.HOUR);
+				} else {
+					task = new Task(TaskType.FLOATING);
+					task.getWindows().add(new Window(i * Utils.HOUR, (i + 10) * Utils.HOUR));
+				}
+				task.setName("readOnlyBenchmark" + i);
+				task.setDuration(Utils.HOUR);
+				tasks.add(task);
+			}
+			taskService.importTasks(scheduleId, tasks.iterator());
+
+			TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+			TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+			readOnly.setReadOnly(true);
+			TransactionCallback<Integer> findTasks = new TransactionCallback<Integer>() {
+				public Integer doInTransaction(TransactionStatus status) {
+					return taskDao.findTasks(scheduleId, null, null, null).size();
+				}
+			};
+
+			run(readWrite, findTasks, WARMUP_RUNS);
+			run(readOnly, findTasks, WARMUP_RUNS);
+			long readWriteNanos = run(readWrite, findTasks, RUNS);
+			long readOnlyNanos = run(readOnly, findTasks, RUNS);
+			LOGGER.info("findTasks of " + TASKS + " tasks, CPU ms per call: read-write " + readWriteNanos / RUNS
+					/ 1000000.0 + ", read-only " + readOnlyNanos / RUNS / 1000000.0);
+		} finally {
+			userService.delete(userId);
+		}
+	}
+
+	/*
+	 * Returns the CPU time of this thread for running the callback the given number of times, each in a transaction.
+	 */
+	private long run(TransactionTemplate template, TransactionCallback<Integer> callback, int runs) {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		long start = threads.getCurrentThreadCpuTime();
+		for (int i = 0; i < runs; i++) {
+			template.execute(callback);
+		}
+		return threads.getCurrentThreadCpuTime() - start;
+	}
+}
@@ -4,8 +4,15 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 import org.junit.After;
@@ -14,15 +21,21 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import tma.dao.ResultHandler;
 import tma.dao.TaskDao;
 import tma.domain.model.Schedule;
 import tma.domain.model.Task;
+import tma.domain.model.TaskChanges;
+import tma.domain.model.TaskSummary;
 import tma.domain.model.Task.SchedulingStatus;
 import tma.domain.model.Task.TaskType;
 import tma.domain.model.User;
 import tma.domain.model.Window;
+import tma.exceptions.BadInputException;
 import tma.test.FunctionalTest;
 import tma.test.TestUtils;
+import tma.util.ICalendarReader;
+import tma.util.ICalendarWriter;
 import tma.util.Utils;
 
 //@Ignore
@@ -37,6 +50,8 @@ public class TaskServiceFTest extends FunctionalTest {
 	private TaskDao taskDao;
 	@Autowired
 	private ScheduleService scheduleService;
+	@Autowired
+	private ScheduleWriter scheduleWriter;
 
 	private long tempScheduleId;
 	private long tempUserId;
@@ -487,6 +502,299 @@ public class TaskServiceFTest extends FunctionalTest {
 
 	}
 
+	@Test
+	public void testFindPaged() {
+		/* 2 unscheduled tasks with windows, which come first, and 3 scheduled ones, 2 of them at the same time */
+		Long[] starts = { null, null, 10L, 10L, 20L };
+		for (Long start : starts) {
+			Task task = new Task(TaskType.FLOATING);
+			task.setName("taskServiceTestFindPaged");
+			task.setScheduleId(tempScheduleId);
+			task.setDuration(1L);
+			task.setStart(start);
+			task.setSchedulingStatus(start == null ? SchedulingStatus.UNSCHEDULED : SchedulingStatus.VALID);
+			taskService.create(task);
+			if (start == null) {
+				taskService.addWindow(task.getId(), new Window(0L, 5L));
+				taskService.addWindow(task.getId(), new Window(10L, 15L));
+			}
+		}
+
+		List<Task> all = taskService.findTasks(tempScheduleId, null, null, null);
+		List<Task> paged = new ArrayList<Task>();
+		List<Task> page = taskService.findTasks(tempScheduleId, null, null, null, null, null, 2);
+		while (!page.isEmpty()) {
+			assertTrue(page.size() <= 2);
+			paged.addAll(page);
+			Task last = page.get(page.size() - 1);
+			page = taskService.findTasks(tempScheduleId, null, null, null, last.getStart(), last.getId(), 2);
+		}
+		assertEquals(5, paged.size());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(all.get(i).getId(), paged.get(i).getId());
+			assertEquals(all.get(i).getWindows().size(), paged.get(i).getWindows().size());
+		}
+		assertEquals(2, paged.get(0).getWindows().size());
+	}
+
+	@Test
+	public void testFindStreamed() {
+		for (int i = 0; i < 3; i++) {
+			Task task = new Task(TaskType.FLOATING);
+			task.setName("taskServiceTestFindStreamed");
+			task.setScheduleId(tempScheduleId);
+			task.setDuration(1L);
+			taskService.create(task);
+			for (int j = 0; j < i; j++) {
+				taskService.addWindow(task.getId(), new Window(j * 10L, j * 10L + 5L));
+			}
+		}
+
+		List<Task> all = taskService.findTasks(tempScheduleId, null, null, null);
+		final List<Task> streamed = new ArrayList<Task>();
+		taskService.findTasks(tempScheduleId, null, null, null, new ResultHandler<Task>() {
+			public void handle(Task task) {
+				streamed.add(task);
+			}
+		});
+		assertEquals(all.size(), streamed.size());
+		for (int i = 0; i < all.size(); i++) {
+			assertEquals(all.get(i).getId(), streamed.get(i).getId());
+			assertEquals(all.get(i).getName(), streamed.get(i).getName());
+			assertEquals(all.get(i).getWindows().size(), streamed.get(i).getWindows().size());
+		}
+	}
+
+	@Test
+	public void testFindSummaries() {
+		Task fixed = new Task(TaskType.FIXED);
+		fixed.setName("taskServiceTestFindSummaries");
+		fixed.setScheduleId(tempScheduleId);
+		fixed.setDuration(10L);
+		fixed.setStart(100L);
+		fixed.setAllDay(true);
+		taskService.create(fixed);
+		Task floating = new Task(TaskType.FLOATING);
+		floating.setScheduleId(tempScheduleId);
+		floating.setDuration(1L);
+		taskService.create(floating);
+		taskService.addWindow(floating.getId(), new Window(0L, 5L));
+
+		List<Task> tasks = taskService.findTasks(tempScheduleId, null, null, null);
+		List<TaskSummary> summaries = taskService.findTaskSummaries(tempScheduleId, null, null, null);
+		assertEquals(tasks.size(), summaries.size());
+		for (int i = 0; i < tasks.size(); i++) {
+			assertEquals(tasks.get(i).getId().longValue(), summaries.get(i).getId());
+			assertEquals(tasks.get(i).getStart(), summaries.get(i).getStart());
+			assertEquals(tasks.get(i).getDuration(), summaries.get(i).getDuration());
+			assertEquals(tasks.get(i).isAllDay(), summaries.get(i).isAllDay());
+			assertEquals(tasks.get(i).getTaskType(), summaries.get(i).getTaskType());
+			assertEquals(tasks.get(i).getSchedulingStatus(), summaries.get(i).getSchedulingStatus());
+		}
+		assertEquals(1, taskService.findTaskSummaries(tempScheduleId, 105L, 200L, null).size());
+	}
+
+	@Test
+	public void testChanges() {
+		Task kept = new Task(TaskType.FIXED);
+		kept.setName("taskServiceTestChanges");
+		kept.setScheduleId(tempScheduleId);
+		kept.setDuration(10L);
+		kept.setStart(100L);
+		taskService.create(kept);
+		Task deleted = new Task(TaskType.FIXED);
+		deleted.setName("taskServiceTestChanges");
+		deleted.setScheduleId(tempScheduleId);
+		deleted.setDuration(10L);
+		deleted.setStart(200L);
+		taskService.create(deleted);
+
+		TaskChanges all = taskService.findChanges(tempScheduleId, 0);
+		assertTrue(all.getTasks().contains(kept));
+		assertTrue(all.getTasks().contains(deleted));
+		long since = all.getSequence();
+		assertTrue(taskService.findChanges(tempScheduleId, since).getTasks().isEmpty());
+
+		kept = taskService.read(kept.getId());
+		kept.setName("taskServiceTestChanges2");
+		taskService.update(kept);
+		taskService.delete(deleted.getId());
+		TaskChanges changes = taskService.findChanges(tempScheduleId, since);
+		assertEquals(1, changes.getTasks().size());
+		assertEquals("taskServiceTestChanges2", changes.getTasks().get(0).getName());
+		assertEquals(Arrays.asList(deleted.getId()), changes.getDeletedTaskIds());
+		assertTrue(changes.getSequence() > since);
+		assertTrue(!changes.isMore());
+	}
+
+	@Test
+	public void testSuccessiveChanges() {
+		/* each change increments the version of the schedule, which the next change must see to succeed */
+		long version = scheduleService.readVersion(tempScheduleId);
+		Task task = new Task(TaskType.FIXED);
+		task.setName("taskServiceTestSuccessiveChanges");
+		task.setScheduleId(tempScheduleId);
+		task.setDuration(10L);
+		task.setStart(0L);
+		taskService.create(task);
+		long afterCreate = scheduleService.readVersion(tempScheduleId);
+		assertTrue(afterCreate > version);
+
+		task = taskService.read(task.getId());
+		task.setDuration(20L);
+		taskService.update(task);
+		long afterUpdate = scheduleService.readVersion(tempScheduleId);
+		assertTrue(afterUpdate > afterCreate);
+		assertEquals(afterUpdate, scheduleService.read(tempScheduleId).getVersion().longValue());
+
+		taskService.delete(task.getId());
+		assertTrue(scheduleService.readVersion(tempScheduleId) > afterUpdate);
+	}
+
+	@Test
+	public void testBusyTimeAfterChange() {
+		Task task = new Task(TaskType.FIXED);
+		task.setName("taskServiceTestBusyTimeAfterChange");
+		task.setScheduleId(tempScheduleId);
+		task.setDuration(10L);
+		task.setStart(100L);
+		taskService.create(task);
+		/* cached by the first read */
+		List<long[]> busy = taskService.findBusyTime(tempScheduleId, null, null);
+		assertEquals(1, busy.size());
+		assertEquals(110L, busy.get(0)[1]);
+
+		task = taskService.read(task.getId());
+		task.setDuration(50L);
+		taskService.update(task);
+		busy = taskService.findBusyTime(tempScheduleId, null, null);
+		assertEquals(1, busy.size());
+		assertEquals(150L, busy.get(0)[1]);
+		assertTrue(taskService.findFreeTime(tempScheduleId, 100L, 150L).isEmpty());
+	}
+
+	@Test
+	public void testConcurrentWrites() throws InterruptedException {
+		/* without the writer, all but one of these would fail on the lock of the schedule */
+		final AtomicInteger failures = new AtomicInteger();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 10; i++) {
+			final long start = i * 100L;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						scheduleWriter.execute(tempScheduleId, "create", new ScheduleWriter.Operation<Long>() {
+							public Long run() {
+								Task task = new Task(TaskType.FIXED);
+								task.setName("taskServiceTestConcurrentWrites");
+								task.setScheduleId(tempScheduleId);
+								task.setDuration(10L);
+								task.setStart(start);
+								return taskService.create(task);
+							}
+						});
+					} catch (RuntimeException e) {
+						failures.incrementAndGet();
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, failures.get());
+		assertEquals(10, taskService.findTasks(tempScheduleId, null, null, "taskServiceTestConcurrentWrites").size());
+	}
+
+	@Test
+	public void testImport() {
+		List<Task> tasks = new ArrayList<Task>();
+		/* more than one flush worth of fixed tasks, and a floating one with windows to merge */
+		for (int i = 0; i < 120; i++) {
+			Task task = new Task(TaskType.FIXED);
+			task.setName("taskServiceTestImport");
+			task.setDuration(10L);
+			task.setStart(i * 10L);
+			tasks.add(task);
+		}
+		Task floating = new Task(TaskType.FLOATING);
+		floating.setName("taskServiceTestImport");
+		floating.setDuration(1L);
+		floating.getWindows().add(new Window(0L, 10L));
+		floating.getWindows().add(new Window(5L, 20L));
+		tasks.add(floating);
+
+		assertEquals(121, taskService.importTasks(tempScheduleId, tasks.iterator()));
+		assertEquals(121, taskService.findTasks(tempScheduleId, null, null, "taskServiceTestImport").size());
+		assertEquals(1, taskService.read(floating.getId()).getWindows().size());
+		assertEquals(0, taskService.invalidateBadTasks(tempScheduleId));
+
+		/* all or nothing: the first task is fine, the second is ordered */
+		Task unordered = new Task(TaskType.FLOATING);
+		unordered.setDuration(1L);
+		Task ordered = new Task(TaskType.FLOATING);
+		ordered.setDuration(1L);
+		ordered.setPreviousTaskId(floating.getId());
+		List<Task> bad = new ArrayList<Task>();
+		bad.add(unordered);
+		bad.add(ordered);
+		try {
+			taskService.importTasks(tempScheduleId, bad.iterator());
+			fail();
+		} catch (BadInputException e) {
+		}
+		assertEquals(121, taskService.findTasks(tempScheduleId, null, null, null).size());
+	}
+
+	@Test
+	public void testImportCalendar() throws IOException {
+		/* more events than are flushed at once: 120 adjacent ones, which are checked as a single range */
+		Task first = createScheduledFloating(30 * Utils.MINUTE);
+		assertEquals(120, taskService.importTasks(tempScheduleId, readCalendar(0L, Utils.MINUTE, 120)));
+		assertEquals(SchedulingStatus.INVALID, taskService.read(first.getId()).getSchedulingStatus());
+
+		/* and 120 separate ones, too many ranges to check one by one, so the whole schedule is checked */
+		Task second = createScheduledFloating(Utils.DAY + 100 * Utils.HOUR);
+		assertEquals(120, taskService.importTasks(tempScheduleId, readCalendar(Utils.DAY, Utils.HOUR, 120)));
+		assertEquals(SchedulingStatus.INVALID, taskService.read(second.getId()).getSchedulingStatus());
+		assertEquals(0, taskService.invalidateBadTasks(tempScheduleId));
+	}
+
+	private Task createScheduledFloating(long start) {
+		Task task = new Task(TaskType.FLOATING);
+		task.setName("taskServiceTestImportCalendar");
+		task.setScheduleId(tempScheduleId);
+		task.setDuration(Utils.MINUTE);
+		task.setStart(start);
+		task.setSchedulingStatus(SchedulingStatus.VALID);
+		taskService.create(task);
+		assertEquals(SchedulingStatus.VALID, taskService.read(task.getId()).getSchedulingStatus());
+		return task;
+	}
+
+	/*
+	 * Reads a calendar of one minute events, one every interval from start.
+	 */
+	private Iterator<Task> readCalendar(long start, long interval, int count) throws IOException {
+		StringWriter out = new StringWriter();
+		ICalendarWriter writer = new ICalendarWriter(out);
+		writer.start();
+		for (int i = 0; i < count; i++) {
+			Task event = new Task(TaskType.FIXED);
+			event.setId((long) i);
+			event.setName("taskServiceTestImportCalendar");
+			event.setStart(start + i * interval);
+			event.setDuration(Utils.MINUTE);
+			writer.write(event);
+		}
+		writer.end();
+		return new ICalendarReader(new StringReader(out.toString()));
+	}
+
 	public void z_teardown() {
 	}
 
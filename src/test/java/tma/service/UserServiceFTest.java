@@ -52,6 +52,10 @@ public class UserServiceFTest extends FunctionalTest{
 		assertTrue(u1Read.getSchedules().size() == 1);
 		assertTrue(u1Read.getSchedules().get(0).getName().equals("userServiceTestScheduleTemp"));
 		schedule = u1Read.getSchedules().get(0);
+		/* the second time from the ownership cache */
+		assertTrue(userService.hasSchedule(id, schedule.getId()));
+		assertTrue(userService.hasSchedule(id, schedule.getId()));
+		assertTrue(!userService.hasSchedule(id, schedule.getId() + 1));
 		
 		schedule.setName("userServiceTestScheduleTempUpdated");
 		userService.updateSchedule(id, schedule);
@@ -61,6 +65,7 @@ public class UserServiceFTest extends FunctionalTest{
 		userService.removeSchedule(id, schedule.getId());
 		u1Read = userService.read(id);
 		assertTrue(u1Read.getSchedules().size() == 0);
+		assertTrue(!userService.hasSchedule(id, schedule.getId()));
 		
 		userService.delete(id);
 		try{
@@ -0,0 +1,51 @@
+package tma.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class HistogramUTest {
+
+	@Test
+	public void testEmpty() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(0.5));
+		assertTrue(histogram.getBuckets().isEmpty());
+	}
+
+	@Test
+	public void testBuckets() {
+		Histogram histogram = new Histogram();
+		histogram.add(0);
+		histogram.add(3);
+		histogram.add(5);
+		histogram.add(6);
+		histogram.add(100000);
+		assertEquals(5, histogram.getCount());
+
+		Map<String, Long> buckets = histogram.getBuckets();
+		assertEquals(4, buckets.size());
+		assertEquals(Long.valueOf(1), buckets.get("<=0"));
+		assertEquals(Long.valueOf(2), buckets.get("<=5"));
+		assertEquals(Long.valueOf(1), buckets.get("<=10"));
+		assertEquals(Long.valueOf(1), buckets.get(">50000"));
+	}
+
+	@Test
+	public void testPercentile() {
+		Histogram histogram = new Histogram();
+		for (int i = 0; i < 99; i++) {
+			histogram.add(15);
+		}
+		histogram.add(1500);
+		assertEquals(20, histogram.getPercentile(0.5));
+		assertEquals(20, histogram.getPercentile(0.99));
+		assertEquals(2000, histogram.getPercentile(1));
+
+		histogram.add(60000);
+		assertEquals(-1, histogram.getPercentile(1));
+	}
+}
@@ -0,0 +1,156 @@
+package tma.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+
+import tma.domain.model.Task;
+import tma.domain.model.Task.SchedulingStatus;
+import tma.domain.model.Task.TaskType;
+import tma.exceptions.BadInputException;
+import tma.test.UnitTest;
+
+public class ICalendarUTest extends UnitTest {
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Task fixed = new Task(TaskType.FIXED);
+		fixed.setId(1L);
+		fixed.setStart(1400000000000L);
+		fixed.setDuration(Utils.HOUR);
+		/* long enough to be folded, with multi-byte characters and characters that need escaping */
+		StringBuilder name = new StringBuilder("meeting; with, \\ and\nmore ");
+		for (int i = 0; i < 20; i++) {
+			name.append("\u00e9\u4e2d\ud83d\ude00");
+		}
+		fixed.setName(name.toString());
+		Task unscheduled = new Task(TaskType.FLOATING);
+		unscheduled.setId(2L);
+		unscheduled.setDuration(Utils.HOUR);
+		Task scheduled = new Task(TaskType.FLOATING);
+		scheduled.setId(3L);
+		scheduled.setDuration(Utils.MINUTE);
+		scheduled.setStart(1400000000000L);
+		scheduled.setSchedulingStatus(SchedulingStatus.VALID);
+
+		StringWriter out = new StringWriter();
+		ICalendarWriter writer = new ICalendarWriter(out);
+		writer.start();
+		writer.write(fixed);
+		writer.write(unscheduled);
+		writer.write(scheduled);
+		writer.end();
+		for (String line : out.toString().split("\r\n")) {
+			assertTrue(line.getBytes("UTF-8").length <= 75);
+		}
+
+		ICalendarReader reader = new ICalendarReader(new StringReader(out.toString()));
+		Task read = reader.next();
+		assertEquals(TaskType.FIXED, read.getTaskType());
+		assertEquals(fixed.getStart(), read.getStart());
+		assertEquals(fixed.getDuration(), read.getDuration());
+		assertEquals(fixed.getName(), read.getName());
+		read = reader.next();
+		assertEquals(scheduled.getStart(), read.getStart());
+		assertEquals(scheduled.getDuration(), read.getDuration());
+		assertFalse(reader.hasNext());
+	}
+
+	@Test
+	public void testAllDayRoundTrip() throws IOException {
+		/* 2014-01-02, for two days */
+		Task twoDays = new Task(TaskType.FIXED);
+		twoDays.setId(1L);
+		twoDays.setStart(1388620800000L);
+		twoDays.setDuration(2 * Utils.DAY);
+		twoDays.setAllDay(true);
+		/* an hour in the afternoon of the same day becomes the whole day */
+		Task partOfDay = new Task(TaskType.FIXED);
+		partOfDay.setId(2L);
+		partOfDay.setStart(1388620800000L + 13 * Utils.HOUR);
+		partOfDay.setDuration(Utils.HOUR);
+		partOfDay.setAllDay(true);
+
+		StringWriter out = new StringWriter();
+		ICalendarWriter writer = new ICalendarWriter(out);
+		writer.start();
+		writer.write(twoDays);
+		writer.write(partOfDay);
+		writer.end();
+		assertTrue(out.toString().contains("DTSTART;VALUE=DATE:20140102\r\n"));
+		assertTrue(out.toString().contains("DTEND;VALUE=DATE:20140104\r\n"));
+
+		ICalendarReader reader = new ICalendarReader(new StringReader(out.toString()));
+		Task read = reader.next();
+		assertTrue(read.isAllDay());
+		assertEquals(twoDays.getStart(), read.getStart());
+		assertEquals(twoDays.getDuration(), read.getDuration());
+		read = reader.next();
+		assertTrue(read.isAllDay());
+		assertEquals(twoDays.getStart(), read.getStart());
+		assertEquals(Utils.DAY, read.getDuration());
+		assertFalse(reader.hasNext());
+	}
+
+	@Test
+	public void testRead() {
+		String calendar = "BEGIN:VCALENDAR\r\n"
+				+ "BEGIN:VEVENT\r\n"
+				+ "DTSTART;TZID=America/New_York:20140101T090000\r\n"
+				+ "DURATION:PT1H30M\r\n"
+				+ "SUMMARY:in new\r\n"
+				+ "  york\r\n"
+				+ "BEGIN:VALARM\r\n"
+				+ "DURATION:PT15M\r\n"
+				+ "END:VALARM\r\n"
+				+ "END:VEVENT\r\n"
+				/* all day, no end */
+				+ "BEGIN:VEVENT\r\n"
+				+ "DTSTART;VALUE=DATE:20140102\r\n"
+				+ "END:VEVENT\r\n"
+				/* no time, skipped */
+				+ "BEGIN:VEVENT\r\n"
+				+ "DTSTART:20140103T100000Z\r\n"
+				+ "END:VEVENT\r\n"
+				+ "BEGIN:VEVENT\r\n"
+				+ "DTSTART:20140103T100000Z\r\n"
+				+ "DTEND:20140103T101000Z\r\n"
+				+ "END:VEVENT\r\n"
+				+ "END:VCALENDAR\r\n";
+		ICalendarReader reader = new ICalendarReader(new StringReader(calendar));
+		Task task = reader.next();
+		/* 9:00 in New York is 14:00 UTC in winter */
+		assertEquals(1388584800000L, task.getStart().longValue());
+		assertEquals(90 * Utils.MINUTE, task.getDuration().longValue());
+		assertEquals("in new york", task.getName());
+		task = reader.next();
+		assertEquals(1388620800000L, task.getStart().longValue());
+		assertEquals(Utils.DAY, task.getDuration());
+		assertTrue(task.isAllDay());
+		task = reader.next();
+		assertEquals(10 * Utils.MINUTE, task.getDuration().longValue());
+		assertFalse(task.isAllDay());
+		assertFalse(reader.hasNext());
+	}
+
+	@Test
+	public void testMalformed() {
+		String[] calendars = { "BEGIN:VCALENDAR\r\nBEGIN:VEVENT\r\n",
+				"BEGIN:VCALENDAR\r\nBEGIN:VEVENT\r\nDTSTART:yesterday\r\nEND:VEVENT\r\nEND:VCALENDAR\r\n",
+				"BEGIN:VCALENDAR\r\nno colon\r\nEND:VCALENDAR\r\n" };
+		for (String calendar : calendars) {
+			try {
+				new ICalendarReader(new StringReader(calendar)).hasNext();
+				fail();
+			} catch (BadInputException e) {
+			}
+		}
+	}
+}